@@ -2,29 +2,17 @@ package client.managers;
 
 import client.server.Client;
 import common.utility.Console;
-import common.Car;
-import common.Coordinates;
 import common.HumanBeing;
-import common.WeaponType;
 import common.serverUtils.Request;
 import common.serverUtils.Response;
-import org.dom4j.Document;
-import org.dom4j.DocumentHelper;
-import org.dom4j.Element;
-import org.dom4j.io.OutputFormat;
-import org.dom4j.io.SAXReader;
-import org.dom4j.io.XMLWriter;
 
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.time.LocalDate;
-import java.util.Map;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
 
 /**
- * Класс-менеджер для чтения и записи коллекции {@link HumanBeing} в XML-файл.
- * Позволяет сериализовать коллекцию в XML и десериализовать её обратно, используя Dom4j.
+ * Класс-менеджер для загрузки коллекции {@link HumanBeing} с сервера и сохранения её на сервере.
+ * Записи передаются в компактном двоичном виде, XML-файл дампа ведёт сервер.
  */
 public class DumpManager {
     private final Console console;
@@ -48,50 +36,16 @@ public class DumpManager {
     }
 
     /**
-     * Записывает коллекцию {@link HumanBeing} в XML-строку и отправляет на сервер.
-     * Формирует XML-документ, сериализует все элементы коллекции и отправляет на сервер.
+     * Отправляет коллекцию {@link HumanBeing} на сервер для сохранения.
+     * Записи передаются в компактном двоичном виде, в XML-файл их переводит сервер.
      * В случае ошибки выводит сообщение в консоль.
      *
      * @param collection коллекция для сохранения
      */
     public void writeCollection(TreeMap<Integer, HumanBeing> collection) {
         try {
-            // Сериализация коллекции в XML-строку
-            Document document = DocumentHelper.createDocument();
-            Element rootElement = document.addElement("humanBeings");
-
-            for (Map.Entry<Integer, HumanBeing> entry : collection.entrySet()) {
-                HumanBeing humanBeing = entry.getValue();
-                Element humanElement = rootElement.addElement("humanBeing").addAttribute("id", String.valueOf(entry.getKey()));
-
-                humanElement.addElement("name").setText(humanBeing.getName());
-
-                Element coordinates = humanElement.addElement("coordinates");
-                coordinates.addElement("x").setText(String.valueOf(humanBeing.getCoordinates().getX()));
-                coordinates.addElement("y").setText(humanBeing.getCoordinates().getY() != null ? String.valueOf(humanBeing.getCoordinates().getY()) : "");
-
-                humanElement.addElement("creationDate").setText(humanBeing.getCreationDate().toString());
-                humanElement.addElement("realHero").setText(humanBeing.getRealHero() != null ? String.valueOf(humanBeing.getRealHero()) : "");
-                humanElement.addElement("hasToothpick").setText(humanBeing.getHasToothpick() != null ? String.valueOf(humanBeing.getHasToothpick()) : "");
-                humanElement.addElement("impactSpeed").setText(String.valueOf(humanBeing.getImpactSpeed()));
-                humanElement.addElement("soundtrackName").setText(String.valueOf(humanBeing.getSoundtrackName()));
-                humanElement.addElement("minutesOfWaiting").setText(humanBeing.getMinutesOfWaiting() != null ? String.valueOf(humanBeing.getMinutesOfWaiting()) : "");
-                humanElement.addElement("weaponType").setText(String.valueOf(humanBeing.getWeaponType()));
-
-                Element carElement = humanElement.addElement("car");
-                carElement.addElement("name").setText(humanBeing.getCar() != null ? String.valueOf(humanBeing.getCar()) : "");
-            }
-
-            OutputFormat format = OutputFormat.createPrettyPrint();
-            format.setEncoding("UTF-8");
-            StringWriter stringWriter = new StringWriter();
-            XMLWriter xmlWriter = new XMLWriter(stringWriter, format);
-            xmlWriter.write(document);
-            xmlWriter.close();
-            String xmlData = stringWriter.toString();
-
             // Отправка дампа на сервер
-            Request request = new Request("save_dump", xmlData);
+            Request request = new Request("save_dump", new ArrayList<>(collection.values()));
             client.sendRequest(request);
             // Получение и вывод ответа сервера
             Response response = client.recieveRequest();
@@ -106,16 +60,16 @@ public class DumpManager {
     }
 
     /**
-     * Загружает коллекцию {@link HumanBeing} из XML-дампа, полученного с сервера.
-     * Очищает переданную коллекцию, парсит XML и добавляет элементы в коллекцию.
-     * В случае ошибок парсинга или получения дампа выводит сообщения в консоль.
+     * Загружает коллекцию {@link HumanBeing}, полученную с сервера.
+     * Очищает переданную коллекцию и добавляет в неё присланные записи.
+     * В случае ошибок получения дампа выводит сообщения в консоль.
      *
      * @param collection коллекция для загрузки данных
      */
     public void readCollection(TreeMap<Integer, HumanBeing> collection) {
         collection.clear();
         try {
-            // Отправляем запрос на сервер для получения XML-дампа коллекции
+            // Отправляем запрос на сервер для получения дампа коллекции
             Request request = new Request("get_dump", "");
             client.sendRequest(request);
             Response response = client.recieveRequest();
@@ -123,60 +77,24 @@ public class DumpManager {
                 console.printError("Нет ответа от сервера при получении коллекции!");
                 return;
             }
-            String xmlContent = response.getMessage();
-
-            if (xmlContent == null || xmlContent.isEmpty()) {
+            List<HumanBeing> elements = response.getElements();
+            if (elements == null) {
+                console.printError(response.getMessage());
+                return;
+            }
+            if (elements.isEmpty()) {
                 console.printError("Коллекция пуста или не получена с сервера!");
                 return;
             }
 
-            SAXReader reader = new SAXReader();
-            Document document = reader.read(new StringReader(xmlContent));
-            Element root = document.getRootElement();
-
-            for (Element humanElement : root.elements("humanBeing")) {
-                try {
-                    int id = Integer.parseInt(humanElement.attributeValue("id"));
-
-                    String name = humanElement.elementText("name");
-                    LocalDate creationDate = LocalDate.parse(humanElement.elementText("creationDate"));
-
-                    Element coordElement = humanElement.element("coordinates");
-                    long x = Long.parseLong(coordElement.elementText("x"));
-                    Float y = !Objects.equals(coordElement.elementText("y"), "") ? Float.parseFloat(coordElement.elementText("y")) : null;
-                    Coordinates coordinates = new Coordinates.Builder().x(x).y(y).build();
-
-                    Boolean realHero = !Objects.equals(humanElement.elementText("realHero"), "") ? Boolean.parseBoolean(humanElement.elementText("realHero")) : null;
-                    Boolean hasToothpick = !Objects.equals(humanElement.elementText("hasToothpick"), "") ? Boolean.parseBoolean(humanElement.elementText("hasToothpick")) : null;
-                    float impactSpeed = Float.parseFloat(humanElement.elementText("impactSpeed"));
-                    String soundtrackName = humanElement.elementText("soundtrackName");
-                    Double minutesOfWaiting = !Objects.equals(humanElement.elementText("minutesOfWaiting"), "") ? Double.parseDouble(humanElement.elementText("minutesOfWaiting")) : null;
-                    WeaponType weaponType = WeaponType.valueOf(humanElement.elementText("weaponType"));
-
-                    Element carElement = humanElement.element("car");
-                    String nameCar = carElement.elementText("name");
-                    Car car = new Car.Builder().name(nameCar).build();
-
-                    HumanBeing human = new HumanBeing.Builder(id, creationDate).name(name)
-                            .coordinates(coordinates)
-                            .realHero(realHero)
-                            .hasToothpick(hasToothpick)
-                            .impactSpeed(impactSpeed)
-                            .soundtrackName(soundtrackName)
-                            .minutesOfWaiting(minutesOfWaiting)
-                            .weaponType(weaponType)
-                            .car(car)
-                            .build(owner);
-
-                    collection.put(id, human);
-                } catch (Exception e) {
-                    console.printError("Ошибка парсинга элемента humanBeing: " + e.getMessage());
-                }
+            // Владелец в дампе не хранится, записи получают владельца этого клиента
+            for (HumanBeing human : elements) {
+                collection.put(human.getId(), new HumanBeing.Builder(human).build(owner));
             }
 
             console.println("Коллекция успешно загружена с сервера!");
         } catch (Exception e) {
-            console.printError("Ошибка при получении или парсинге коллекции: " + e.getMessage());
+            console.printError("Ошибка при получении коллекции: " + e.getMessage());
         }
     }
 }
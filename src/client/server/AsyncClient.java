@@ -0,0 +1,194 @@
+package client.server;
+
+import common.serverUtils.Fragment;
+import common.serverUtils.Request;
+import common.serverUtils.Response;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static common.serverUtils.Serializer.deserialize;
+import static common.serverUtils.Serializer.serialize;
+
+/**
+ * Асинхронный клиент: отправляет запросы по одному потоковому соединению, не дожидаясь
+ * ответов на предыдущие, и сопоставляет ответы запросам по идентификатору.
+ * <p>
+ * Запросы можно отправлять из любых потоков. Ответы читает отдельный поток клиента и завершает
+ * ими соответствующие {@link CompletableFuture}; сервер может отвечать не в порядке запросов.
+ * Если ответ не пришёл за {@link #TIME_OUT} мс, future завершается {@link java.util.concurrent.TimeoutException}.
+ * </p>
+ * <p>
+ * Перегруженный сервер не выполняет запрос и сообщает, через сколько его повторить
+ * ({@link Response#getRetryAfter()}). Такой запрос отправляется заново по истечении этой
+ * задержки, если она укладывается в тайм-аут; иначе future завершается ответом сервера о перегрузке.
+ * </p>
+ */
+public class AsyncClient implements AutoCloseable {
+    private static final long TIME_OUT = 3000;
+    private static final int SERVER_PORT = 1448;
+    /**
+     * Согласовывать ли с сервером сжатие больших запросов и ответов.
+     */
+    private static final boolean COMPRESSION = Boolean.parseBoolean(System.getProperty("client.compression", "true"));
+
+    private final SocketChannel channel;
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final Thread reader;
+    private volatile boolean closed;
+
+    public AsyncClient() throws IOException {
+        this(new InetSocketAddress("localhost", SERVER_PORT));
+    }
+
+    /**
+     * Подключается к серверу.
+     *
+     * @param address TCP-адрес или путь Unix-сокета сервера
+     * @throws IOException если сервер не принимает соединения
+     */
+    public AsyncClient(SocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        reader = new Thread(this::readResponses, "Поток приёма ответов");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Отправляет запрос.
+     *
+     * @param request запрос; его идентификатор назначается клиентом
+     * @return future, завершаемый ответом сервера
+     */
+    public CompletableFuture<Response> send(Request request) {
+        long requestId = nextRequestId.incrementAndGet();
+        request.setRequestId(requestId);
+        request.setCompressionAccepted(COMPRESSION);
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        byte[] message = serialize(request);
+        ByteBuffer frame = ByteBuffer.allocate(4 + message.length);
+        frame.putInt(message.length).put(message).flip();
+        Pending entry = new Pending(future, frame, System.currentTimeMillis() + TIME_OUT);
+        pending.put(requestId, entry);
+        future.orTimeout(TIME_OUT, TimeUnit.MILLISECONDS).whenComplete((response, e) -> pending.remove(requestId));
+        write(entry);
+        return future;
+    }
+
+    /**
+     * Отправляет кадр запроса; при ошибке завершает его future.
+     */
+    private void write(Pending entry) {
+        ByteBuffer frame = entry.frame.duplicate();
+        try {
+            // Кадры разных потоков не должны перемежаться
+            synchronized (channel) {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        } catch (IOException e) {
+            entry.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return число запросов, ожидающих ответа
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void readResponses() {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        try {
+            while (!closed) {
+                length.clear();
+                readFully(length);
+                int size = length.flip().getInt();
+                if (size <= 0 || size > Fragment.MAX_MESSAGE_SIZE) {
+                    throw new IOException("Неверная длина кадра " + size);
+                }
+                ByteBuffer message = ByteBuffer.allocate(size);
+                readFully(message);
+                Object object = deserialize(message.array());
+                if (object instanceof Response) {
+                    Response response = (Response) object;
+                    // Ответ без идентификатора сопоставить не с чем; его запрос завершится по тайм-ауту
+                    Pending entry = pending.get(response.getRequestId());
+                    if (entry != null) {
+                        accept(entry, response);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            failPending(e);
+        }
+    }
+
+    /**
+     * Завершает запрос ответом или, если сервер перегружен и просит подождать, повторяет его позже.
+     */
+    private void accept(Pending entry, Response response) {
+        long retryAfter = response.getRetryAfter();
+        if (retryAfter > 0 && !closed && System.currentTimeMillis() + retryAfter < entry.deadline) {
+            CompletableFuture.delayedExecutor(retryAfter, TimeUnit.MILLISECONDS).execute(() -> {
+                if (!entry.future.isDone()) {
+                    write(entry);
+                }
+            });
+            return;
+        }
+        pending.remove(response.getRequestId());
+        entry.future.complete(response);
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Соединение закрыто сервером");
+            }
+        }
+    }
+
+    private void failPending(IOException e) {
+        for (Pending entry : pending.values()) {
+            entry.future.completeExceptionally(e);
+        }
+        pending.clear();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        failPending(new IOException("Клиент закрыт"));
+    }
+
+    /**
+     * Запрос, ожидающий ответа: кадр хранится для повтора по просьбе перегруженного сервера.
+     */
+    private static final class Pending {
+        private final CompletableFuture<Response> future;
+        private final ByteBuffer frame;
+        private final long deadline;
+
+        private Pending(CompletableFuture<Response> future, ByteBuffer frame, long deadline) {
+            this.future = future;
+            this.frame = frame;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -1,57 +1,330 @@
 package client.server;
 
 
+import common.serverUtils.Acknowledgement;
+import common.serverUtils.BufferPool;
+import common.serverUtils.Fragment;
+import common.serverUtils.FragmentAssembler;
 import common.serverUtils.Request;
 import common.serverUtils.Response;
+import common.serverUtils.RttEstimator;
+import common.serverUtils.WindowedSender;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 import static common.serverUtils.Serializer.deserialize;
 import static common.serverUtils.Serializer.serialize;
 
 public class Client {
+    /**
+     * Наибольшее время ожидания ответа, включая повторные отправки запроса (мс).
+     */
     private static final int TIME_OUT = 3000;
-    private static final int BUFFER_SIZE = 8096;
+    private static final long INITIAL_RETRY_TIME_OUT = 200;
+    private static final long MIN_RETRY_TIME_OUT = 10;
     private static final int SERVER_PORT = 1448;
+    /**
+     * Согласовывать ли с сервером сжатие больших запросов и ответов.
+     */
+    private static final boolean COMPRESSION = Boolean.parseBoolean(System.getProperty("client.compression", "true"));
+    /**
+     * Транспорт: udp - только датаграммы; tcp - TCP-соединение для дампов и запросов,
+     * не помещающихся в одну датаграмму; unix - все запросы через Unix-сокет сервера на этой машине;
+     * shm - все запросы через разделяемую память сервера на этой машине.
+     * Если соединение установить не удалось, запрос отправляется датаграммами.
+     */
+    private static final String TRANSPORT = System.getProperty("client.transport", "tcp");
+    private static final String SOCKET_PATH = System.getProperty("client.socketPath",
+            Path.of(System.getProperty("java.io.tmpdir"), "lab7.sock").toString());
+    private static final String SHARED_MEMORY_PATH = System.getProperty("client.sharedMemoryPath",
+            Path.of(System.getProperty("java.io.tmpdir"), "lab7.shm").toString());
+    /**
+     * Команды, передающие коллекцию целиком; их ответы не помещаются в датаграмму.
+     */
+    private static final Set<String> BULK_COMMANDS = Set.of("get_dump", "save_dump");
     private DatagramChannel channel;
+    // Ожидание датаграмм без активного опроса канала
+    private final Selector selector;
+    private final FragmentAssembler assembler = new FragmentAssembler();
+    private final BufferPool bufferPool = BufferPool.getInstance();
+    // Собранные ответы, пришедшие в одной датаграмме с предыдущим
+    private final ArrayDeque<byte[]> receivedMessages = new ArrayDeque<>();
+    private Connection stream;
+    // Ушёл ли последний запрос по соединению; тогда и ответ ожидается оттуда
+    private boolean lastRequestByStream;
+    // Идентификатор последнего отправленного запроса; ответы на прежние запросы отбрасываются
+    private long lastRequestId;
+    private final InetSocketAddress serverAddress = new InetSocketAddress("localhost", SERVER_PORT);
+    // Оценка RTT до сервера, по которой выбирается тайм-аут повторной отправки запроса
+    private final RttEstimator rtt = new RttEstimator(INITIAL_RETRY_TIME_OUT, MIN_RETRY_TIME_OUT, TIME_OUT);
+    // Последний запрос, если он уместился в одну датаграмму: его можно повторить при потере
+    private Fragment retryFragment;
+    // Последний запрос: повторяется, если перегруженный сервер попросил подождать
+    private Request lastRequest;
+    private long sentAt;
+    private boolean retried;
 
     public Client() throws IOException {
         channel = DatagramChannel.open();
         channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
     }
 
     public void sendRequest(Request request) throws IOException {
         if (request == null){
             return;
         }
-        ByteBuffer byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-        InetSocketAddress inetSocketAddress = new InetSocketAddress("localhost", SERVER_PORT);
-        byteBuffer.clear();
-        byteBuffer = ByteBuffer.wrap(serialize(request));
-        channel.send(byteBuffer, inetSocketAddress);
-        byteBuffer.clear();
+        request.setCompressionAccepted(COMPRESSION);
+        request.setRequestId(++lastRequestId);
+        byte[] message = serialize(request);
+        lastRequestByStream = false;
+        retryFragment = null;
+        lastRequest = request;
+        if (useStream(request, message.length)) {
+            try {
+                if (stream == null) {
+                    stream = openConnection(serverAddress);
+                }
+                stream.send(message, TIME_OUT);
+                lastRequestByStream = true;
+                return;
+            } catch (IOException e) {
+                // Сервер без приёма соединений или разорванное соединение: отправляем датаграммами
+                closeStream();
+            }
+        }
+        long transferId = ThreadLocalRandom.current().nextLong();
+        List<Fragment> fragments = Fragment.split(message, transferId);
+        if (fragments.size() == 1) {
+            retryFragment = fragments.get(0);
+            retried = false;
+            sendDatagram(retryFragment);
+            return;
+        }
+        WindowedSender sender = new WindowedSender(fragments, datagram -> channel.send(datagram, serverAddress), rtt);
+        try {
+            if (!sender.transfer(this::receiveAcknowledgement)) {
+                throw new IOException("Сервер не подтвердил приём запроса");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
     }
 
-    public Response recieveRequest() throws IOException, ClassNotFoundException {
-        ByteBuffer byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-        long startTime = System.currentTimeMillis();
-        Response response = null;
-        while (System.currentTimeMillis() - startTime < TIME_OUT) {
-            InetSocketAddress inetSocketAddress = (InetSocketAddress) channel.receive(byteBuffer);
-            if (inetSocketAddress == null){
-                continue;
+    private void sendDatagram(Fragment fragment) throws IOException {
+        ByteBuffer byteBuffer = bufferPool.acquire();
+        try {
+            fragment.writeTo(byteBuffer);
+            byteBuffer.flip();
+            channel.send(byteBuffer, serverAddress);
+        } finally {
+            bufferPool.release(byteBuffer);
+        }
+        sentAt = System.currentTimeMillis();
+    }
+
+    private Acknowledgement receiveAcknowledgement(long timeOut) throws IOException {
+        ByteBuffer byteBuffer = bufferPool.acquire();
+        try {
+            long deadline = System.currentTimeMillis() + timeOut;
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                if (receive(byteBuffer, remaining) == null) {
+                    continue;
+                }
+                byteBuffer.flip();
+                if (Fragment.frameType(byteBuffer) == Fragment.ACK) {
+                    return Acknowledgement.readFrom(byteBuffer);
+                }
+                byteBuffer.clear();
             }
-            Object object = deserialize(byteBuffer.array());
-            if (object instanceof Response) {
-                response = (Response) object;
+            return null;
+        } finally {
+            bufferPool.release(byteBuffer);
+        }
+    }
+
+    public Response recieveRequest() throws IOException {
+        long deadline = System.currentTimeMillis() + TIME_OUT;
+        Response response = awaitResponse();
+        // Перегруженный сервер не выполнил запрос и сообщил, когда повторить; повторяем, пока успеваем
+        while (response.getRetryAfter() > 0 && System.currentTimeMillis() + response.getRetryAfter() < deadline) {
+            try {
+                Thread.sleep(response.getRetryAfter());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            sendRequest(lastRequest);
+            response = awaitResponse();
+        }
+        return response;
+    }
+
+    private Response awaitResponse() throws IOException {
+        if (lastRequestByStream) {
+            lastRequestByStream = false;
+            try {
+                while (true) {
+                    Response response = toResponse(stream.receive(TIME_OUT));
+                    if (isAnswer(response)) {
+                        return response;
+                    }
+                }
+            } catch (IOException e) {
+                closeStream();
+                return new Response("Ошибка : ответа от сервера не последовало");
             }
-            byteBuffer.clear();
+        }
+        Response response = pollAnswer();
+        if (response != null) {
             return response;
         }
-        return new Response("Ошибка : ответа от сервера не последовало");
+        ByteBuffer byteBuffer = bufferPool.acquire();
+        try {
+            long deadline = System.currentTimeMillis() + TIME_OUT;
+            long retryAt = sentAt + rtt.getTimeOut();
+            boolean answering = false;
+            long now;
+            while ((now = System.currentTimeMillis()) < deadline) {
+                // Пока сервер молчит, запрос повторяется с удвоением тайм-аута до общего срока
+                if (!answering && retryFragment != null && now >= retryAt) {
+                    rtt.backOff();
+                    retried = true;
+                    sendDatagram(retryFragment);
+                    retryAt = sentAt + rtt.getTimeOut();
+                }
+                long wait = deadline - now;
+                if (!answering && retryFragment != null) {
+                    wait = Math.max(1, Math.min(wait, retryAt - now));
+                }
+                InetSocketAddress inetSocketAddress = receive(byteBuffer, wait);
+                if (inetSocketAddress == null){
+                    continue;
+                }
+                byteBuffer.flip();
+                // Сервер может упаковать несколько коротких ответов в одну датаграмму
+                while (byteBuffer.hasRemaining() && Fragment.frameType(byteBuffer) == Fragment.DATA) {
+                    Fragment fragment = Fragment.readFrom(byteBuffer);
+                    // Сервер начал передавать большой ответ и доставит его сам, повторять запрос больше не нужно
+                    answering |= fragment.getTotal() > 1;
+                    acceptFragment(fragment, inetSocketAddress);
+                }
+                byteBuffer.clear();
+                // Пока фрагменты большого ответа продолжают приходить, тайм-аут отсчитывается заново
+                deadline = System.currentTimeMillis() + TIME_OUT;
+                response = pollAnswer();
+                if (response != null) {
+                    // По повторённому запросу замер не делается: неизвестно, на какую отправку пришёл ответ
+                    if (retryFragment != null && !retried && !answering) {
+                        rtt.sample(System.currentTimeMillis() - sentAt);
+                    }
+                    return response;
+                }
+            }
+            return new Response("Ошибка : ответа от сервера не последовало");
+        } finally {
+            bufferPool.release(byteBuffer);
+        }
+    }
+
+    /**
+     * Принимает датаграмму, если нужно - ожидая её на селекторе, а не опрашивая канал в цикле.
+     *
+     * @param buffer  куда принять
+     * @param timeOut наибольшее время ожидания, мс
+     * @return адрес отправителя или null, если датаграмма не пришла
+     */
+    private InetSocketAddress receive(ByteBuffer buffer, long timeOut) throws IOException {
+        SocketAddress address = channel.receive(buffer);
+        if (address == null && selector.select(timeOut) > 0) {
+            selector.selectedKeys().clear();
+            address = channel.receive(buffer);
+        }
+        return (InetSocketAddress) address;
+    }
+
+    /**
+     * Достаёт из принятых сообщений ответ на последний запрос, отбрасывая запоздавшие ответы на прежние.
+     *
+     * @return ответ или null, если он ещё не принят
+     */
+    private Response pollAnswer() throws IOException {
+        byte[] message;
+        while ((message = receivedMessages.poll()) != null) {
+            Response response = toResponse(message);
+            if (isAnswer(response)) {
+                return response;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ответы без идентификатора сервер отправляет на повреждённые запросы; они относятся к последнему запросу.
+     */
+    private boolean isAnswer(Response response) {
+        return response != null && (response.getRequestId() == lastRequestId || response.getRequestId() == 0);
+    }
+
+    private boolean useStream(Request request, int size) {
+        return switch (TRANSPORT) {
+            case "unix", "shm" -> true;
+            case "tcp" -> BULK_COMMANDS.contains(request.getClientRequest()) || size > Fragment.MAX_PAYLOAD_SIZE;
+            default -> false;
+        };
+    }
+
+    private Connection openConnection(InetSocketAddress serverAddress) throws IOException {
+        return switch (TRANSPORT) {
+            case "shm" -> new SharedMemoryConnection(Path.of(SHARED_MEMORY_PATH));
+            case "unix" -> new StreamConnection(UnixDomainSocketAddress.of(SOCKET_PATH));
+            default -> new StreamConnection(serverAddress);
+        };
+    }
+
+    private void closeStream() {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    private void acceptFragment(Fragment fragment, InetSocketAddress inetSocketAddress) throws IOException {
+        byte[] message = assembler.accept(inetSocketAddress, fragment);
+        if (fragment.getTotal() > 1) {
+            ByteBuffer acknowledgement = bufferPool.acquire();
+            try {
+                assembler.acknowledge(inetSocketAddress, fragment).writeTo(acknowledgement);
+                acknowledgement.flip();
+                channel.send(acknowledgement, inetSocketAddress);
+            } finally {
+                bufferPool.release(acknowledgement);
+            }
+        }
+        if (message != null) {
+            receivedMessages.add(message);
+        }
+    }
+
+    private Response toResponse(byte[] message) throws IOException {
+        Object object = deserialize(message);
+        return object instanceof Response ? (Response) object : null;
     }
-}
\ No newline at end of file
+}
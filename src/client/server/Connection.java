@@ -0,0 +1,30 @@
+package client.server;
+
+import java.io.IOException;
+
+/**
+ * Соединение клиента с сервером, передающее сообщения протокола целиком,
+ * без разбиения на датаграммы.
+ */
+public interface Connection extends AutoCloseable {
+    /**
+     * Отправляет одно сообщение.
+     *
+     * @param message сообщение протокола
+     * @param timeOut наибольшее время ожидания готовности соединения, мс
+     * @throws IOException если соединение разорвано или сервер не принимает данные
+     */
+    void send(byte[] message, long timeOut) throws IOException;
+
+    /**
+     * Принимает одно сообщение.
+     *
+     * @param timeOut наибольшее время ожидания очередной порции данных, мс
+     * @return сообщение протокола
+     * @throws IOException если соединение разорвано или данные не пришли вовремя
+     */
+    byte[] receive(long timeOut) throws IOException;
+
+    @Override
+    void close();
+}
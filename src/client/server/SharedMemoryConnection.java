@@ -0,0 +1,84 @@
+package client.server;
+
+import common.serverUtils.SharedRing;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Соединение с сервером на той же машине через кольцевые буферы в разделяемой памяти.
+ * <p>
+ * Клиент пишет запросы в {@code <путь>.req} и читает ответы из {@code <путь>.resp}.
+ * Пока соединение открыто, клиент держит блокировку файла {@code <путь>.lock}:
+ * у каждого буфера может быть только один писатель и один читатель.
+ * </p>
+ */
+public class SharedMemoryConnection implements Connection {
+    private final FileChannel lockFile;
+    private final FileLock lock;
+    private final SharedRing requests;
+    private final SharedRing responses;
+
+    /**
+     * Подключается к буферам сервера.
+     *
+     * @param path общий префикс путей к файлам буферов
+     * @throws IOException если сервер не открыл транспорт или им уже пользуется другой клиент
+     */
+    public SharedMemoryConnection(Path path) throws IOException {
+        lockFile = FileChannel.open(Path.of(path + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        SharedRing requestRing = null;
+        try {
+            lock = tryLock(lockFile);
+            if (lock == null) {
+                throw new IOException("Разделяемая память занята другим клиентом");
+            }
+            requestRing = SharedRing.open(Path.of(path + ".req"));
+            requests = requestRing;
+            responses = SharedRing.open(Path.of(path + ".resp"));
+        } catch (IOException e) {
+            if (requestRing != null) {
+                requestRing.close();
+            }
+            lockFile.close();
+            throw e;
+        }
+        // Недописанный прежним клиентом запрос сервер пропустит, а не забранные им ответы
+        // этому клиенту не предназначены
+        requests.restart();
+        responses.skipAll();
+    }
+
+    private static FileLock tryLock(FileChannel file) throws IOException {
+        try {
+            return file.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Блокировку держит другой клиент этой же JVM
+            return null;
+        }
+    }
+
+    @Override
+    public void send(byte[] message, long timeOut) throws IOException {
+        requests.write(message, timeOut);
+    }
+
+    @Override
+    public byte[] receive(long timeOut) throws IOException {
+        return responses.read(timeOut);
+    }
+
+    @Override
+    public void close() {
+        try {
+            requests.close();
+            responses.close();
+            lockFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
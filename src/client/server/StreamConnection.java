@@ -0,0 +1,83 @@
+package client.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Постоянное потоковое соединение клиента с сервером.
+ * <p>
+ * Сообщения передаются кадрами: длина (4 байта), затем сообщение протокола. Соединение
+ * переиспользуется для всех запросов, поэтому установка соединения оплачивается один раз,
+ * а большой дамп не нужно резать на датаграммы и подтверждать по частям.
+ * </p>
+ */
+public class StreamConnection implements Connection {
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final SelectionKey key;
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+
+    /**
+     * Устанавливает соединение.
+     *
+     * @param address адрес сервера
+     * @throws IOException если сервер не принимает соединения
+     */
+    public StreamConnection(SocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        key = channel.register(selector, 0);
+    }
+
+    @Override
+    public void send(byte[] message, long timeOut) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(4 + message.length);
+        frame.putInt(message.length).put(message).flip();
+        transfer(frame, SelectionKey.OP_WRITE, timeOut);
+    }
+
+    @Override
+    public byte[] receive(long timeOut) throws IOException {
+        lengthBuffer.clear();
+        transfer(lengthBuffer, SelectionKey.OP_READ, timeOut);
+        int length = lengthBuffer.flip().getInt();
+        if (length <= 0) {
+            throw new IOException("Неверная длина кадра " + length);
+        }
+        ByteBuffer message = ByteBuffer.allocate(length);
+        transfer(message, SelectionKey.OP_READ, timeOut);
+        return message.array();
+    }
+
+    private void transfer(ByteBuffer buffer, int operation, long timeOut) throws IOException {
+        key.interestOps(operation);
+        while (buffer.hasRemaining()) {
+            int count = operation == SelectionKey.OP_READ ? channel.read(buffer) : channel.write(buffer);
+            if (count < 0) {
+                throw new IOException("Соединение закрыто сервером");
+            }
+            if (count == 0) {
+                // Тайм-аут отсчитывается заново после каждой порции, поэтому большой дамп не прерывается
+                if (selector.select(timeOut) == 0) {
+                    throw new SocketTimeoutException();
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -65,6 +65,15 @@ public class HumanBeing extends Element implements Validatable {
         return id;
     }
 
+    /**
+     * Возвращает логин пользователя, создавшего запись.
+     *
+     * @return владелец записи
+     */
+    public String getOwner() {
+        return owner;
+    }
+
     /**
      * Возвращает имя человека.
      *
@@ -366,6 +375,24 @@ public class HumanBeing extends Element implements Validatable {
             this.date = date;
         }
 
+        /**
+         * Конструктор для копирования существующего человека с сохранением id и даты создания.
+         *
+         * @param humanBeing копируемый человек
+         */
+        public Builder(HumanBeing humanBeing) {
+            this(humanBeing.id, humanBeing.creationDate);
+            this.name = humanBeing.name;
+            this.coordinates = humanBeing.coordinates;
+            this.realHero = humanBeing.realHero;
+            this.hasToothpick = humanBeing.hasToothpick;
+            this.impactSpeed = humanBeing.impactSpeed;
+            this.soundtrackName = humanBeing.soundtrackName;
+            this.minutesOfWaiting = humanBeing.minutesOfWaiting;
+            this.weaponType = humanBeing.weaponType;
+            this.car = humanBeing.car;
+        }
+
         /**
          * Устанавливает имя человека.
          *
@@ -0,0 +1,82 @@
+package common.serverUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Подтверждение приёма фрагментов многофрагментной передачи.
+ * Содержит кумулятивное подтверждение (число фрагментов, полученных подряд с начала)
+ * и битовую маску выборочного подтверждения (SACK) для следующих за ним 64 фрагментов.
+ * <p>
+ * Формат кадра: тип кадра (1 байт), идентификатор передачи (8 байт),
+ * кумулятивное подтверждение (4 байта), маска SACK (8 байт).
+ * </p>
+ */
+public class Acknowledgement {
+    public static final int SIZE = 1 + 8 + 4 + 8;
+    /**
+     * Число фрагментов после кумулятивного подтверждения, описываемых маской SACK.
+     */
+    public static final int SELECTIVE_RANGE = Long.SIZE;
+
+    private final long transferId;
+    private final int cumulative;
+    private final long selective;
+
+    /**
+     * Конструктор подтверждения.
+     *
+     * @param transferId идентификатор передачи
+     * @param cumulative число фрагментов, полученных подряд начиная с нулевого
+     * @param selective  маска: бит i установлен, если получен фрагмент cumulative + 1 + i
+     */
+    public Acknowledgement(long transferId, int cumulative, long selective) {
+        this.transferId = transferId;
+        this.cumulative = cumulative;
+        this.selective = selective;
+    }
+
+    public long getTransferId() {
+        return transferId;
+    }
+
+    public int getCumulative() {
+        return cumulative;
+    }
+
+    public long getSelective() {
+        return selective;
+    }
+
+    /**
+     * Записывает подтверждение в буфер.
+     *
+     * @param buffer буфер, в котором свободно не меньше {@link #SIZE} байт
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(Fragment.ACK);
+        buffer.putLong(transferId);
+        buffer.putInt(cumulative);
+        buffer.putLong(selective);
+    }
+
+    /**
+     * Читает подтверждение из принятой датаграммы.
+     *
+     * @param buffer буфер с датаграммой, подготовленный для чтения
+     * @return прочитанное подтверждение
+     * @throws IOException если кадр повреждён
+     */
+    public static Acknowledgement readFrom(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < SIZE || buffer.get() != Fragment.ACK) {
+            throw new IOException("Поврежденное подтверждение");
+        }
+        long transferId = buffer.getLong();
+        int cumulative = buffer.getInt();
+        long selective = buffer.getLong();
+        if (cumulative < 0) {
+            throw new IOException("Поврежденное подтверждение");
+        }
+        return new Acknowledgement(transferId, cumulative, selective);
+    }
+}
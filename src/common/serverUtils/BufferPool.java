@@ -0,0 +1,84 @@
+package common.serverUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Пул переиспользуемых direct-буферов для приёма и отправки датаграмм.
+ * <p>
+ * Каждый поток сначала берёт буферы из собственного небольшого кэша, затем из общего
+ * ограниченного пула, и только если оба пусты, выделяет новый буфер. Возвращённые буферы
+ * сверх ёмкости общего пула отбрасываются, поэтому объём удерживаемой памяти ограничен.
+ * </p>
+ * <p>
+ * Кэш потока рассчитан на немногие долгоживущие потоки. С виртуальными потоками, которых
+ * много и которые живут недолго, он отключается ({@link #disableThreadCache()}): иначе каждый
+ * поток уносил бы с собой до {@link #MAX_THREAD_CACHED} direct-буферов мимо общего пула.
+ * </p>
+ */
+public class BufferPool {
+    /**
+     * Размер буфера: не меньше максимального размера датаграммы протокола.
+     */
+    public static final int BUFFER_SIZE = 2048;
+    private static final int MAX_POOLED = 1024;
+    private static final int MAX_THREAD_CACHED = 8;
+    private static BufferPool instance;
+
+    private final ArrayBlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(MAX_POOLED);
+    private final ThreadLocal<ArrayDeque<ByteBuffer>> threadCache = ThreadLocal.withInitial(ArrayDeque::new);
+    private volatile boolean threadCacheEnabled = true;
+
+    private BufferPool() {
+    }
+
+    public static synchronized BufferPool getInstance() {
+        if (instance == null) instance = new BufferPool();
+        return instance;
+    }
+
+    /**
+     * Отключает кэш потока: буферы берутся и возвращаются только через общий пул.
+     * Вызывается при запуске, до первого обращения к пулу.
+     */
+    public void disableThreadCache() {
+        threadCacheEnabled = false;
+    }
+
+    /**
+     * Выдаёт очищенный буфер размера {@link #BUFFER_SIZE}.
+     *
+     * @return буфер, готовый к записи
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = threadCacheEnabled ? threadCache.get().poll() : null;
+        if (buffer == null) {
+            buffer = pool.poll();
+        }
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Возвращает буфер в пул. После возврата буфер нельзя использовать.
+     *
+     * @param buffer буфер, полученный через {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != BUFFER_SIZE) {
+            return;
+        }
+        if (threadCacheEnabled) {
+            ArrayDeque<ByteBuffer> cache = threadCache.get();
+            if (cache.size() < MAX_THREAD_CACHED) {
+                cache.push(buffer);
+                return;
+            }
+        }
+        pool.offer(buffer);
+    }
+}
@@ -0,0 +1,210 @@
+package common.serverUtils;
+
+import common.Car;
+import common.Coordinates;
+import common.HumanBeing;
+import common.WeaponType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатие тела сообщения алгоритмом Deflate с заранее заданным словарём.
+ * <p>
+ * Сжатое тело: длина исходных данных (4 байта), затем поток Deflate. Словарь - тела запроса
+ * save_dump и ответа на get_dump с записями из примера коллекции (test.xml), закодированные
+ * самим {@link Serializer}, поэтому в нём те же последовательности байт, что и в сжимаемых
+ * телах, и небольшие сообщения тоже заметно сжимаются.
+ * Тела короче {@link #THRESHOLD} байт не сжимаются: выигрыш не окупает затрат.
+ * </p>
+ * <p>
+ * Deflater и Inflater держат память вне кучи, поэтому переиспользуются: по умолчанию каждый
+ * поток хранит свою пару. Виртуальных потоков много и живут они недолго, поэтому для них
+ * ({@link #disableThreadCache()}) кодеки берутся из общего ограниченного пула, а не
+ * поместившиеся в него освобождаются через {@code end()}.
+ * </p>
+ */
+public class Compression {
+    /**
+     * Минимальный размер тела, начиная с которого оно сжимается (байт).
+     */
+    public static final int THRESHOLD = 512;
+    /**
+     * Во сколько раз Deflate может сжать данные в лучшем случае; заявленный размер
+     * распакованного тела сверх этого отношения к сжатому означает повреждённые данные.
+     */
+    private static final int MAX_RATIO = 1032;
+    // Начальный буфер распаковки; заявленный размер не проверен, поэтому буфер растёт
+    // по мере распаковки, а не выделяется сразу целиком
+    private static final int INITIAL_INFLATE_BUFFER = 64 * 1024;
+    private static final byte[] DICTIONARY = buildDictionary();
+
+    private static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    private static final ArrayBlockingQueue<Deflater> deflaterPool = new ArrayBlockingQueue<>(MAX_POOLED);
+    private static final ArrayBlockingQueue<Inflater> inflaterPool = new ArrayBlockingQueue<>(MAX_POOLED);
+    private static volatile boolean threadCache = true;
+
+    private Compression() {
+    }
+
+    /**
+     * Переключает сжатие на общий пул кодеков вместо кодеков каждого потока.
+     * Вызывается при запуске, до первого сжатия.
+     */
+    public static void disableThreadCache() {
+        threadCache = false;
+    }
+
+    /**
+     * Сжимает тело сообщения.
+     *
+     * @param data   массив с телом
+     * @param offset начало тела
+     * @param length длина тела
+     * @return сжатое тело или null, если сжатие не уменьшило размер
+     */
+    public static byte[] deflate(byte[] data, int offset, int length) {
+        Deflater deflater = acquireDeflater();
+        try {
+            deflater.reset();
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            WireWriter writer = new WireWriter(length / 2 + 64);
+            writer.writeInt(length);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                int produced = deflater.deflate(chunk);
+                writer.writeBytes(chunk, 0, produced);
+                if (writer.size() >= length) {
+                    return null;
+                }
+            }
+            return writer.toByteArray();
+        } finally {
+            releaseDeflater(deflater);
+        }
+    }
+
+    /**
+     * Распаковывает тело, сжатое {@link #deflate}.
+     *
+     * @param body буфер со сжатым телом; читается от позиции до предела
+     * @return буфер с распакованным телом, подготовленный для чтения
+     * @throws IOException если данные повреждены
+     */
+    public static ByteBuffer inflate(ByteBuffer body) throws IOException {
+        if (body.remaining() < 4) {
+            throw new IOException("Поврежденное сообщение: данные обрезаны");
+        }
+        int length = body.getInt();
+        if (length < 0 || length > Fragment.MAX_MESSAGE_SIZE || length > (long) body.remaining() * MAX_RATIO) {
+            throw new IOException("Поврежденное сообщение: неверный размер сжатых данных");
+        }
+        Inflater inflater = acquireInflater();
+        inflater.reset();
+        inflater.setInput(body);
+        byte[] result = new byte[Math.min(length, INITIAL_INFLATE_BUFFER)];
+        try {
+            int inflated = 0;
+            while (inflated < length) {
+                if (inflated == result.length) {
+                    result = Arrays.copyOf(result, (int) Math.min(length, 2L * result.length));
+                }
+                int count = inflater.inflate(result, inflated, result.length - inflated);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        break;
+                    }
+                }
+                inflated += count;
+            }
+            if (inflated != length) {
+                throw new IOException("Поврежденное сообщение: неверные сжатые данные");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Поврежденное сообщение: неверные сжатые данные");
+        } finally {
+            releaseInflater(inflater);
+        }
+        return ByteBuffer.wrap(result);
+    }
+
+    /**
+     * Собирает словарь из несжатых тел сообщений с записями примера коллекции.
+     * Клиент и сервер собирают его одинаково, поэтому словарь не передаётся.
+     */
+    private static byte[] buildDictionary() {
+        LocalDate date = LocalDate.of(2025, 5, 1);
+        List<HumanBeing> sample = List.of(
+                sampleOf(2, date, "Connor", 23, -2.5f, true, false, 99.0f, "Your Choice - Connor", 10.0, ""),
+                sampleOf(3, date, "V", -166, -461.0f, true, true, 1.0f, "To the Fullset", 0.0, "Rayfield Caliburn"),
+                sampleOf(11, date, "Gerald", 34523, -1241.23f, true, false, 71.1f, "The Witcher", 0.6, ""));
+        // Сжатие выключено: тела кодируются так же, как перед сжатием
+        byte[] request = Serializer.serialize(new Request("save_dump", sample));
+        Response response = new Response("");
+        response.setElements(sample);
+        byte[] reply = Serializer.serialize(response);
+        int requestBody = request.length - Serializer.HEADER_SIZE;
+        int replyBody = reply.length - Serializer.HEADER_SIZE;
+        byte[] dictionary = new byte[requestBody + replyBody];
+        System.arraycopy(request, Serializer.HEADER_SIZE, dictionary, 0, requestBody);
+        System.arraycopy(reply, Serializer.HEADER_SIZE, dictionary, requestBody, replyBody);
+        return dictionary;
+    }
+
+    private static HumanBeing sampleOf(int id, LocalDate date, String name, long x, float y, boolean realHero,
+                                       boolean hasToothpick, float impactSpeed, String soundtrackName,
+                                       double minutesOfWaiting, String carName) {
+        return new HumanBeing.Builder(id, date).name(name)
+                .coordinates(new Coordinates.Builder().x(x).y(y).build())
+                .realHero(realHero)
+                .hasToothpick(hasToothpick)
+                .impactSpeed(impactSpeed)
+                .soundtrackName(soundtrackName)
+                .minutesOfWaiting(minutesOfWaiting)
+                .weaponType(WeaponType.KNIFE)
+                .car(new Car.Builder().name(carName).build())
+                .build(null);
+    }
+
+    private static Deflater acquireDeflater() {
+        if (threadCache) {
+            return deflaters.get();
+        }
+        Deflater deflater = deflaterPool.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.BEST_SPEED);
+    }
+
+    private static void releaseDeflater(Deflater deflater) {
+        if (!threadCache && !deflaterPool.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static Inflater acquireInflater() {
+        if (threadCache) {
+            return inflaters.get();
+        }
+        Inflater inflater = inflaterPool.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private static void releaseInflater(Inflater inflater) {
+        if (!threadCache && !inflaterPool.offer(inflater)) {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package common.serverUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Фрагмент сообщения, передаваемый одной UDP-датаграммой.
+ * Сообщение, не помещающееся в одну датаграмму, разбивается на несколько фрагментов
+ * с общим идентификатором передачи и порядковыми номерами, а на принимающей стороне
+ * собирается обратно с помощью {@link FragmentAssembler}.
+ * <p>
+ * Формат заголовка: тип кадра (1 байт), идентификатор передачи (8 байт),
+ * номер фрагмента (4 байта), общее число фрагментов (4 байта), длина данных (4 байта).
+ * Приём фрагментов многофрагментной передачи подтверждается кадрами {@link Acknowledgement}.
+ * Несколько коротких кадров могут идти в одной датаграмме друг за другом.
+ * </p>
+ */
+public class Fragment {
+    /**
+     * Тип кадра: фрагмент данных.
+     */
+    public static final byte DATA = 0;
+    /**
+     * Тип кадра: подтверждение приёма ({@link Acknowledgement}).
+     */
+    public static final byte ACK = 1;
+    /**
+     * Максимальный размер датаграммы, не вызывающий IP-фрагментации в типичной сети.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 1400;
+    public static final int HEADER_SIZE = 1 + 8 + 4 + 4 + 4;
+    public static final int MAX_PAYLOAD_SIZE = MAX_DATAGRAM_SIZE - HEADER_SIZE;
+    /**
+     * Наибольший размер сообщения, собираемого из фрагментов. Закодированный дамп
+     * из десятков тысяч записей занимает единицы мегабайт, так что запас большой.
+     */
+    public static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+    private final long transferId;
+    private final int sequence;
+    private final int total;
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    /**
+     * Конструктор фрагмента.
+     *
+     * @param transferId идентификатор передачи, общий для всех фрагментов сообщения
+     * @param sequence   порядковый номер фрагмента (с нуля)
+     * @param total      общее число фрагментов в сообщении
+     * @param data       массив с данными сообщения
+     * @param offset     смещение данных фрагмента в массиве
+     * @param length     длина данных фрагмента
+     */
+    public Fragment(long transferId, int sequence, int total, byte[] data, int offset, int length) {
+        this.transferId = transferId;
+        this.sequence = sequence;
+        this.total = total;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Разбивает сообщение на фрагменты, каждый из которых помещается в одну датаграмму.
+     *
+     * @param message    сериализованное сообщение
+     * @param transferId идентификатор передачи
+     * @return список фрагментов в порядке следования
+     */
+    public static List<Fragment> split(byte[] message, long transferId) {
+        int total = Math.max(1, (message.length + MAX_PAYLOAD_SIZE - 1) / MAX_PAYLOAD_SIZE);
+        List<Fragment> fragments = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            int from = i * MAX_PAYLOAD_SIZE;
+            int length = Math.min(MAX_PAYLOAD_SIZE, message.length - from);
+            fragments.add(new Fragment(transferId, i, total, message, from, length));
+        }
+        return fragments;
+    }
+
+    /**
+     * Записывает фрагмент (заголовок и данные) в буфер.
+     *
+     * @param buffer буфер, в котором должно быть не меньше {@link #HEADER_SIZE} + длина данных свободных байт
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(DATA);
+        buffer.putLong(transferId);
+        buffer.putInt(sequence);
+        buffer.putInt(total);
+        buffer.putInt(length);
+        buffer.put(data, offset, length);
+    }
+
+    /**
+     * Возвращает тип кадра принятой датаграммы, не сдвигая позицию буфера.
+     *
+     * @param buffer буфер с датаграммой, подготовленный для чтения
+     * @return тип кадра ({@link #DATA} или {@link #ACK}) или -1, если датаграмма пуста
+     */
+    public static byte frameType(ByteBuffer buffer) {
+        return buffer.hasRemaining() ? buffer.get(buffer.position()) : -1;
+    }
+
+    /**
+     * Читает фрагмент из принятой датаграммы. Данные фрагмента копируются.
+     *
+     * @param buffer буфер с датаграммой, подготовленный для чтения
+     * @return прочитанный фрагмент
+     * @throws IOException если заголовок повреждён или данные обрезаны
+     */
+    public static Fragment readFrom(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.get() != DATA) {
+            throw new IOException("Поврежденный заголовок фрагмента");
+        }
+        long transferId = buffer.getLong();
+        int sequence = buffer.getInt();
+        int total = buffer.getInt();
+        int length = buffer.getInt();
+        if (total <= 0 || sequence < 0 || sequence >= total || length < 0 || length > buffer.remaining()) {
+            throw new IOException("Поврежденный заголовок фрагмента");
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return new Fragment(transferId, sequence, total, data, 0, length);
+    }
+
+    /**
+     * Если кадр в буфере - единственный фрагмент сообщения, выставляет позицию буфера на начало
+     * его данных, а предел - на их конец, чтобы сообщение можно было разобрать прямо в буфере
+     * приёма без копирования. Кадры многофрагментных передач не трогает.
+     *
+     * @param buffer буфер с датаграммой, подготовленный для чтения
+     * @return true, если буфер теперь указывает на данные одиночного фрагмента
+     * @throws IOException если заголовок повреждён или данные обрезаны
+     */
+    public static boolean payloadInPlace(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE || buffer.get(start) != DATA || buffer.getInt(start + 13) != 1) {
+            return false;
+        }
+        int sequence = buffer.getInt(start + 9);
+        int length = buffer.getInt(start + 17);
+        if (sequence != 0 || length < 0 || length > buffer.remaining() - HEADER_SIZE) {
+            throw new IOException("Поврежденный заголовок фрагмента");
+        }
+        buffer.position(start + HEADER_SIZE);
+        buffer.limit(start + HEADER_SIZE + length);
+        return true;
+    }
+
+    public long getTransferId() {
+        return transferId;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Копирует данные фрагмента в массив.
+     *
+     * @param target   массив назначения
+     * @param position позиция в массиве назначения
+     */
+    public void copyTo(byte[] target, int position) {
+        System.arraycopy(data, offset, target, position, length);
+    }
+
+    /**
+     * Возвращает данные фрагмента отдельным массивом.
+     *
+     * @return копия данных фрагмента (или сам массив, если он целиком принадлежит фрагменту)
+     */
+    public byte[] getData() {
+        if (offset == 0 && length == data.length) {
+            return data;
+        }
+        byte[] copy = new byte[length];
+        copyTo(copy, 0);
+        return copy;
+    }
+}
@@ -0,0 +1,212 @@
+package common.serverUtils;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Сборщик сообщений из фрагментов.
+ * Хранит буферы сборки для каждой пары (адрес отправителя, идентификатор передачи),
+ * принимает фрагменты в любом порядке, игнорирует дубликаты и возвращает сообщение целиком,
+ * как только получены все его фрагменты. Для многофрагментных передач формирует
+ * подтверждения {@link Acknowledgement}; завершённая сборка хранится до истечения тайм-аута,
+ * чтобы повторно присланные фрагменты не начинали сборку заново, а получали полное подтверждение.
+ * Сборки удаляются по тайм-ауту простоя.
+ * <p>
+ * Заголовок фрагмента не заслуживает доверия, поэтому память сборки растёт только по мере
+ * прихода фрагментов, размер сообщения ограничен {@link Fragment#MAX_MESSAGE_SIZE}, а число
+ * незавершённых сборок от одного отправителя - {@link #MAX_ASSEMBLIES_PER_SOURCE}.
+ * </p>
+ */
+public class FragmentAssembler {
+    /**
+     * Время простоя, после которого сборка удаляется (мс).
+     */
+    private static final long ASSEMBLY_TIME_OUT = 10000;
+    private static final int MAX_FRAGMENTS = Fragment.MAX_MESSAGE_SIZE / Fragment.MAX_PAYLOAD_SIZE;
+    private static final int MAX_ASSEMBLIES_PER_SOURCE = 16;
+
+    private final Map<Key, Assembly> assemblies = new ConcurrentHashMap<>();
+    // Число незавершённых сборок от каждого отправителя
+    private final Map<InetSocketAddress, Integer> activeBySource = new ConcurrentHashMap<>();
+    private long lastEviction = System.currentTimeMillis();
+
+    /**
+     * Принимает очередной фрагмент.
+     *
+     * @param source   адрес отправителя
+     * @param fragment принятый фрагмент
+     * @return собранное сообщение, если этот фрагмент был последним недостающим, иначе null
+     */
+    public byte[] accept(InetSocketAddress source, Fragment fragment) {
+        evictExpired();
+        if (fragment.getTotal() == 1) {
+            return fragment.getData();
+        }
+        if (fragment.getTotal() > MAX_FRAGMENTS) {
+            return null;
+        }
+        Key key = new Key(source, fragment.getTransferId());
+        Assembly assembly = assemblies.get(key);
+        if (assembly == null) {
+            if (activeBySource.getOrDefault(source, 0) >= MAX_ASSEMBLIES_PER_SOURCE) {
+                return null;
+            }
+            assembly = new Assembly(fragment.getTotal());
+            Assembly existing = assemblies.putIfAbsent(key, assembly);
+            if (existing != null) {
+                assembly = existing;
+            } else {
+                activeBySource.merge(source, 1, Integer::sum);
+            }
+        }
+        synchronized (assembly) {
+            if (!assembly.add(fragment)) {
+                return null;
+            }
+            release(source);
+            return assembly.join();
+        }
+    }
+
+    /**
+     * Формирует подтверждение текущего состояния сборки.
+     * Вызывается после {@link #accept} для фрагментов многофрагментных передач.
+     *
+     * @param source   адрес отправителя
+     * @param fragment последний принятый фрагмент передачи
+     * @return подтверждение для отправки источнику
+     */
+    public Acknowledgement acknowledge(InetSocketAddress source, Fragment fragment) {
+        Assembly assembly = assemblies.get(new Key(source, fragment.getTransferId()));
+        if (assembly == null) {
+            return new Acknowledgement(fragment.getTransferId(), 0, 0);
+        }
+        synchronized (assembly) {
+            return assembly.acknowledge(fragment.getTransferId());
+        }
+    }
+
+    /**
+     * Удаляет сборки, не получавшие фрагментов дольше тайм-аута.
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        if (now - lastEviction < ASSEMBLY_TIME_OUT) {
+            return;
+        }
+        lastEviction = now;
+        Iterator<Map.Entry<Key, Assembly>> iterator = assemblies.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Assembly> entry = iterator.next();
+            if (now - entry.getValue().lastUpdate > ASSEMBLY_TIME_OUT) {
+                iterator.remove();
+                if (!entry.getValue().isComplete()) {
+                    release(entry.getKey().source);
+                }
+            }
+        }
+    }
+
+    private void release(InetSocketAddress source) {
+        activeBySource.computeIfPresent(source, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Ключ буфера сборки.
+     */
+    private static final class Key {
+        private final InetSocketAddress source;
+        private final long transferId;
+
+        private Key(InetSocketAddress source, long transferId) {
+            this.source = source;
+            this.transferId = transferId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return transferId == key.transferId && Objects.equals(source, key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, transferId);
+        }
+    }
+
+    /**
+     * Буфер сборки одного сообщения.
+     */
+    private static final class Assembly {
+        private final int total;
+        // Принятые фрагменты по номеру; null, когда сообщение уже собрано
+        private Map<Integer, Fragment> parts = new HashMap<>();
+        private int received = 0;
+        private int contiguous = 0;
+        private int size = 0;
+        private long lastUpdate = System.currentTimeMillis();
+
+        private Assembly(int total) {
+            this.total = total;
+        }
+
+        private boolean isComplete() {
+            return parts == null;
+        }
+
+        /**
+         * Добавляет фрагмент в сборку.
+         *
+         * @return true, если после добавления сообщение собрано полностью
+         */
+        private boolean add(Fragment fragment) {
+            lastUpdate = System.currentTimeMillis();
+            if (parts == null || fragment.getTotal() != total || parts.containsKey(fragment.getSequence())) {
+                return false;
+            }
+            parts.put(fragment.getSequence(), fragment);
+            received++;
+            size += fragment.getLength();
+            while (contiguous < total && parts.containsKey(contiguous)) {
+                contiguous++;
+            }
+            return received == total;
+        }
+
+        /**
+         * Склеивает фрагменты в сообщение и освобождает их; сборка остаётся помеченной как завершённая.
+         */
+        private byte[] join() {
+            byte[] message = new byte[size];
+            int position = 0;
+            for (int i = 0; i < total; i++) {
+                Fragment part = parts.get(i);
+                part.copyTo(message, position);
+                position += part.getLength();
+            }
+            parts = null;
+            return message;
+        }
+
+        private Acknowledgement acknowledge(long transferId) {
+            if (parts == null) {
+                return new Acknowledgement(transferId, total, 0);
+            }
+            long selective = 0;
+            int limit = Math.min(total, contiguous + 1 + Acknowledgement.SELECTIVE_RANGE);
+            for (int i = contiguous + 1; i < limit; i++) {
+                if (parts.containsKey(i)) {
+                    selective |= 1L << (i - contiguous - 1);
+                }
+            }
+            return new Acknowledgement(transferId, contiguous, selective);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package common.serverUtils;
+
+import common.Car;
+import common.Coordinates;
+import common.HumanBeing;
+import common.WeaponType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Компактное двоичное кодирование записей {@link HumanBeing}.
+ * <p>
+ * Формат записи: id (varint), битовая маска необязательных полей (varint), дата создания
+ * (номер дня от эпохи, varint), имя, координата x (varint), координата y, скорость удара,
+ * название саундтрека, время ожидания, тип оружия (порядковый номер, 1 байт), машина, владелец.
+ * Отсутствующие поля не записываются вовсе, логические значения хранятся в самой маске.
+ * </p>
+ * <p>
+ * Строки записываются тегом (varint): 0 - null, чётный тег - длина + 1, за которой следуют
+ * байты UTF-8, нечётный - ссылка на строку, уже встречавшуюся в этой же передаче. Словарь
+ * строк ведётся отдельно для каждой передачи, поэтому повторяющиеся названия машин
+ * и саундтреков в дампе передаются один раз.
+ * </p>
+ */
+public class HumanBeingCodec {
+    /**
+     * Наибольшее число строк в словаре одной передачи.
+     */
+    private static final int MAX_DICTIONARY_SIZE = 4096;
+
+    private static final int COORDINATES = 1;
+    private static final int COORDINATE_Y = 1 << 1;
+    private static final int REAL_HERO = 1 << 2;
+    private static final int REAL_HERO_VALUE = 1 << 3;
+    private static final int TOOTHPICK = 1 << 4;
+    private static final int TOOTHPICK_VALUE = 1 << 5;
+    private static final int MINUTES_OF_WAITING = 1 << 6;
+    private static final int WEAPON_TYPE = 1 << 7;
+    private static final int CAR = 1 << 8;
+    private static final int OWNER = 1 << 9;
+
+    private static final WeaponType[] WEAPON_TYPES = WeaponType.values();
+
+    private final boolean useDictionary;
+    private final Map<String, Integer> encodeDictionary = new HashMap<>();
+    private final List<String> decodeDictionary = new ArrayList<>();
+
+    /**
+     * Конструктор кодека одной передачи.
+     *
+     * @param useDictionary вести ли словарь повторяющихся строк
+     */
+    public HumanBeingCodec(boolean useDictionary) {
+        this.useDictionary = useDictionary;
+    }
+
+    /**
+     * Записывает список записей: число записей, признак словаря и сами записи.
+     * Словарь строк включается для списков из нескольких записей.
+     *
+     * @param humanBeings записи
+     * @param writer      куда писать
+     */
+    public static void encodeAll(Collection<HumanBeing> humanBeings, WireWriter writer) {
+        boolean useDictionary = humanBeings.size() > 1;
+        writer.writeVarInt(humanBeings.size());
+        writer.writeByte(useDictionary ? 1 : 0);
+        HumanBeingCodec codec = new HumanBeingCodec(useDictionary);
+        for (HumanBeing humanBeing : humanBeings) {
+            codec.encode(humanBeing, writer);
+        }
+    }
+
+    /**
+     * Читает список записей, записанный {@link #encodeAll}.
+     *
+     * @param reader откуда читать
+     * @return записи
+     * @throws IOException если данные повреждены
+     */
+    public static List<HumanBeing> decodeAll(WireReader reader) throws IOException {
+        int count = reader.readVarInt();
+        // Каждая запись занимает хотя бы три байта, что защищает от огромного списка в повреждённом пакете
+        if (count < 0 || count > reader.remaining() / 3) {
+            throw new IOException("Поврежденное сообщение: неверное число записей");
+        }
+        HumanBeingCodec codec = new HumanBeingCodec(reader.readByte() != 0);
+        List<HumanBeing> humanBeings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            humanBeings.add(codec.decode(reader));
+        }
+        return humanBeings;
+    }
+
+    /**
+     * Записывает одну запись.
+     *
+     * @param humanBeing запись
+     * @param writer     куда писать
+     */
+    public void encode(HumanBeing humanBeing, WireWriter writer) {
+        Coordinates coordinates = humanBeing.getCoordinates();
+        Boolean realHero = humanBeing.getRealHero();
+        Boolean hasToothpick = humanBeing.getHasToothpick();
+        int flags = 0;
+        if (coordinates != null) flags |= COORDINATES;
+        if (coordinates != null && coordinates.getY() != null) flags |= COORDINATE_Y;
+        if (realHero != null) flags |= realHero ? REAL_HERO | REAL_HERO_VALUE : REAL_HERO;
+        if (hasToothpick != null) flags |= hasToothpick ? TOOTHPICK | TOOTHPICK_VALUE : TOOTHPICK;
+        if (humanBeing.getMinutesOfWaiting() != null) flags |= MINUTES_OF_WAITING;
+        if (humanBeing.getWeaponType() != null) flags |= WEAPON_TYPE;
+        if (humanBeing.getCar() != null) flags |= CAR;
+        if (humanBeing.getOwner() != null) flags |= OWNER;
+
+        writer.writeVarInt(humanBeing.getId());
+        writer.writeVarInt(flags);
+        writer.writeSignedVarLong(humanBeing.getCreationDate().toEpochDay());
+        writeString(humanBeing.getName(), writer);
+        if (coordinates != null) {
+            writer.writeSignedVarLong(coordinates.getX());
+            if (coordinates.getY() != null) {
+                writer.writeFloat(coordinates.getY());
+            }
+        }
+        writer.writeFloat(humanBeing.getImpactSpeed());
+        writeString(humanBeing.getSoundtrackName(), writer);
+        if (humanBeing.getMinutesOfWaiting() != null) {
+            writer.writeDouble(humanBeing.getMinutesOfWaiting());
+        }
+        if (humanBeing.getWeaponType() != null) {
+            writer.writeByte(humanBeing.getWeaponType().ordinal());
+        }
+        if (humanBeing.getCar() != null) {
+            writeString(humanBeing.getCar().getName(), writer);
+        }
+        if (humanBeing.getOwner() != null) {
+            writeString(humanBeing.getOwner(), writer);
+        }
+    }
+
+    /**
+     * Читает одну запись.
+     *
+     * @param reader откуда читать
+     * @return запись
+     * @throws IOException если данные повреждены
+     */
+    public HumanBeing decode(WireReader reader) throws IOException {
+        int id = reader.readVarInt();
+        int flags = reader.readVarInt();
+        LocalDate creationDate = LocalDate.ofEpochDay(reader.readSignedVarLong());
+        HumanBeing.Builder builder = new HumanBeing.Builder(id, creationDate).name(readString(reader));
+        if ((flags & COORDINATES) != 0) {
+            Coordinates.Builder coordinates = new Coordinates.Builder().x(reader.readSignedVarLong());
+            if ((flags & COORDINATE_Y) != 0) {
+                coordinates.y(reader.readFloat());
+            }
+            builder.coordinates(coordinates.build());
+        } else {
+            builder.coordinates(null);
+        }
+        builder.realHero((flags & REAL_HERO) != 0 ? (flags & REAL_HERO_VALUE) != 0 : null)
+                .hasToothpick((flags & TOOTHPICK) != 0 ? (flags & TOOTHPICK_VALUE) != 0 : null)
+                .impactSpeed(reader.readFloat())
+                .soundtrackName(readString(reader));
+        if ((flags & MINUTES_OF_WAITING) != 0) {
+            builder.minutesOfWaiting(reader.readDouble());
+        }
+        if ((flags & WEAPON_TYPE) != 0) {
+            int ordinal = reader.readByte();
+            if (ordinal < 0 || ordinal >= WEAPON_TYPES.length) {
+                throw new IOException("Поврежденное сообщение: неизвестный тип оружия");
+            }
+            builder.weaponType(WEAPON_TYPES[ordinal]);
+        }
+        builder.car((flags & CAR) != 0 ? new Car.Builder().name(readString(reader)).build() : null);
+        String owner = (flags & OWNER) != 0 ? readString(reader) : null;
+        return builder.build(owner);
+    }
+
+    private void writeString(String value, WireWriter writer) {
+        if (value == null) {
+            writer.writeVarInt(0);
+            return;
+        }
+        if (useDictionary) {
+            Integer index = encodeDictionary.get(value);
+            if (index != null) {
+                writer.writeVarLong(((long) index << 1) | 1);
+                return;
+            }
+            if (encodeDictionary.size() < MAX_DICTIONARY_SIZE) {
+                encodeDictionary.put(value, encodeDictionary.size());
+            }
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writer.writeVarLong((long) (bytes.length + 1) << 1);
+        writer.writeBytes(bytes, 0, bytes.length);
+    }
+
+    private String readString(WireReader reader) throws IOException {
+        long tag = reader.readVarLong();
+        if (tag == 0) {
+            return null;
+        }
+        if ((tag & 1) != 0) {
+            long index = tag >>> 1;
+            if (!useDictionary || index >= decodeDictionary.size()) {
+                throw new IOException("Поврежденное сообщение: неверная ссылка на строку");
+            }
+            return decodeDictionary.get((int) index);
+        }
+        long length = (tag >>> 1) - 1;
+        if (length > reader.remaining()) {
+            throw new IOException("Поврежденное сообщение: неверная длина строки");
+        }
+        String value = reader.readUtf8((int) length);
+        if (useDictionary && decodeDictionary.size() < MAX_DICTIONARY_SIZE) {
+            decodeDictionary.add(value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,14 @@
+package common.serverUtils;
+
+/**
+ * Обратный канал, по которому сервер отвечает на запрос, пришедший не датаграммой,
+ * а по потоковому соединению. Существует только на сервере и по сети не передаётся.
+ */
+public interface ReplyChannel {
+    /**
+     * Отправляет ответ клиенту по соединению, через которое пришёл запрос.
+     *
+     * @param reply закодированный ответ
+     */
+    void reply(byte[] reply);
+}
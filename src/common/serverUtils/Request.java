@@ -2,17 +2,30 @@ package common.serverUtils;
 
 import common.HumanBeing;
 
-import java.io.Serializable;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 
-public class Request implements Serializable {
+public class Request {
     private String clientRequest;
     private String dataRequest;
     private HumanBeing humanBeing;
+    private List<HumanBeing> elements;
+    // Клиент принимает сжатые ответы (согласуется для каждого запроса)
+    private boolean compressionAccepted;
+    // Идентификатор запроса, назначаемый клиентом; сервер повторяет его в ответе
+    private long requestId;
+    // Соединение, по которому пришёл запрос; null для запросов, пришедших датаграммой
+    private ReplyChannel replyChannel;
     private InetSocketAddress clientAddress;
+    // Момент передачи запроса на выполнение (нс); используется только сервером
+    private long receivedAt;
     private String login;
     private String password;
+    // Закодированные записи, принятые по сети; разбираются в объекты только при первом обращении
+    private ByteBuffer encodedBody;
 
     public Request(String clientRequest, String dataRequest) {
         this.clientRequest = clientRequest;
@@ -28,6 +41,11 @@ public class Request implements Serializable {
         this.humanBeing = humanBeing;
     }
 
+    public Request(String clientRequest, List<HumanBeing> elements) {
+        this.clientRequest = clientRequest;
+        this.elements = elements;
+    }
+
     public Request(String clientRequest, HumanBeing humanBeing, String login, String password) {
         this.humanBeing = humanBeing;
         this.clientRequest = clientRequest;
@@ -40,6 +58,7 @@ public class Request implements Serializable {
     }
 
     public HumanBeing getHumanBeing() {
+        decodeBody();
         return humanBeing;
     }
 
@@ -51,6 +70,72 @@ public class Request implements Serializable {
         this.humanBeing = humanBeing;
     }
 
+    public List<HumanBeing> getElements() {
+        decodeBody();
+        return elements;
+    }
+
+    /**
+     * Откладывает разбор записей запроса до первого обращения к ним.
+     *
+     * @param encodedBody закодированная часть запроса с записями (см. {@link RequestView})
+     */
+    void setEncodedBody(ByteBuffer encodedBody) {
+        this.encodedBody = encodedBody;
+    }
+
+    private void decodeBody() {
+        if (encodedBody == null) {
+            return;
+        }
+        WireReader reader = new WireReader(encodedBody);
+        encodedBody = null;
+        try {
+            Serializer.readRequestBody(this, reader);
+        } catch (IOException e) {
+            // Контрольная сумма уже проверена, поэтому сюда попадают только некорректно
+            // сформированные записи - запрос считается пришедшим без них
+            humanBeing = null;
+            elements = null;
+        }
+    }
+
+    public void setElements(List<HumanBeing> elements) {
+        this.elements = elements;
+    }
+
+    public boolean isCompressionAccepted() {
+        return compressionAccepted;
+    }
+
+    public void setCompressionAccepted(boolean compressionAccepted) {
+        this.compressionAccepted = compressionAccepted;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
+    public ReplyChannel getReplyChannel() {
+        return replyChannel;
+    }
+
+    public void setReplyChannel(ReplyChannel replyChannel) {
+        this.replyChannel = replyChannel;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    public void setReceivedAt(long receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
     public InetSocketAddress getClientAddress() {
         return clientAddress;
     }
@@ -0,0 +1,211 @@
+package common.serverUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * Представление запроса, читающее поля прямо из принятого буфера.
+ * <p>
+ * Один экземпляр переиспользуется для всех запросов потока приёма: {@link #wrap} только проверяет
+ * заголовок и запоминает положения строковых полей, не создавая объектов. Имя команды сравнивается
+ * с известными командами побайтно, поэтому маршрутизация и отбрасывание неизвестных команд ничего
+ * не выделяют. Полный {@link Request} строится {@link #toRequest()}, а записи {@link common.HumanBeing}
+ * разбираются ещё позже - при первом обращении к ним.
+ * Представление действительно, пока не изменилось содержимое буфера.
+ * </p>
+ */
+public class RequestView {
+    /**
+     * Команды, которые обрабатывает сервер.
+     */
+    private static final String[] COMMANDS = {"get_dump", "save_dump"};
+    // Индекс get_dump в COMMANDS
+    private static final int GET_DUMP = 0;
+    private static final byte[][] COMMAND_BYTES = new byte[COMMANDS.length][];
+
+    static {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            COMMAND_BYTES[i] = COMMANDS[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer buffer;
+    private long requestId;
+    private int command;
+    private int commandOffset;
+    private int commandLength;
+    private int dataOffset;
+    private int dataLength;
+    private int loginOffset;
+    private int loginLength;
+    private int passwordOffset;
+    private int passwordLength;
+    private int bodyOffset;
+    private boolean compressionAccepted;
+
+    /**
+     * Наводит представление на сообщение в буфере. Позиция буфера не меняется.
+     *
+     * @param message буфер, позиция и предел которого ограничивают сообщение
+     * @return true, если это запрос, false для сообщений других типов
+     * @throws IOException если сообщение повреждено
+     */
+    public boolean wrap(ByteBuffer message) throws IOException {
+        int start = message.position();
+        try {
+            if (Serializer.readHeader(message, crc) != Serializer.REQUEST) {
+                return false;
+            }
+            byte flags = Serializer.flagsOf(message, start);
+            compressionAccepted = (flags & Serializer.ACCEPTS_COMPRESSION) != 0;
+            // Сжатыми приходят только большие запросы, для них распаковка дешевле передачи
+            this.buffer = (flags & Serializer.COMPRESSED) != 0 ? Compression.inflate(message) : message;
+            int position = buffer.position();
+            if (position + 8 > buffer.limit()) {
+                throw new IOException("Поврежденное сообщение: данные обрезаны");
+            }
+            requestId = buffer.getLong(position);
+            position += 8;
+            commandOffset = position + 4;
+            commandLength = stringLength(position);
+            position = skipString(position);
+            dataOffset = position + 4;
+            dataLength = stringLength(position);
+            position = skipString(position);
+            loginOffset = position + 4;
+            loginLength = stringLength(position);
+            position = skipString(position);
+            passwordOffset = position + 4;
+            passwordLength = stringLength(position);
+            bodyOffset = skipString(position);
+            if (bodyOffset + 2 > buffer.limit()) {
+                throw new IOException("Поврежденное сообщение: данные обрезаны");
+            }
+            command = findCommand();
+            return true;
+        } finally {
+            message.position(start);
+        }
+    }
+
+    /**
+     * Проверяет, обрабатывает ли сервер команду запроса.
+     *
+     * @return true для известной команды
+     */
+    public boolean isKnownCommand() {
+        return command >= 0;
+    }
+
+    /**
+     * Возвращает имя команды; для известных команд - без создания новой строки.
+     *
+     * @return имя команды или null
+     */
+    public String getCommand() {
+        return command >= 0 ? COMMANDS[command] : string(commandOffset, commandLength);
+    }
+
+    /**
+     * @return true, если команда только читает коллекцию и её можно безопасно выполнить повторно
+     */
+    public boolean isReadOnly() {
+        return command == GET_DUMP;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public String getDataRequest() {
+        return string(dataOffset, dataLength);
+    }
+
+    public String getLogin() {
+        return string(loginOffset, loginLength);
+    }
+
+    public String getPassword() {
+        return string(passwordOffset, passwordLength);
+    }
+
+    /**
+     * Проверяет, несёт ли запрос записи коллекции (одиночную запись или дамп).
+     *
+     * @return true, если в запросе есть записи
+     */
+    public boolean hasRecords() {
+        // Без записей тело состоит из двух нулевых признаков: одиночной записи и списка
+        return buffer.limit() - bodyOffset != 2 || buffer.get(bodyOffset) != 0 || buffer.get(bodyOffset + 1) != 0;
+    }
+
+    /**
+     * Строит запрос по представлению. Строковые поля читаются сразу, записи копируются
+     * в закодированном виде и разбираются в объекты только при первом обращении к ним.
+     *
+     * @return запрос
+     */
+    public Request toRequest() {
+        Request request = new Request(getCommand(), getDataRequest());
+        request.setLogin(getLogin());
+        request.setPassword(getPassword());
+        request.setRequestId(requestId);
+        request.setCompressionAccepted(compressionAccepted);
+        if (hasRecords()) {
+            int length = buffer.limit() - bodyOffset;
+            request.setEncodedBody(ByteBuffer.allocate(length).put(0, buffer, bodyOffset, length));
+        }
+        return request;
+    }
+
+    private int stringLength(int position) throws IOException {
+        if (position + 4 > buffer.limit()) {
+            throw new IOException("Поврежденное сообщение: данные обрезаны");
+        }
+        int length = buffer.getInt(position);
+        if (length < -1 || (length > 0 && length > buffer.limit() - position - 4)) {
+            throw new IOException("Поврежденное сообщение: неверная длина строки");
+        }
+        return length;
+    }
+
+    private int skipString(int position) {
+        return position + 4 + Math.max(0, buffer.getInt(position));
+    }
+
+    private int findCommand() {
+        for (int i = 0; i < COMMAND_BYTES.length; i++) {
+            if (equalsAt(commandOffset, commandLength, COMMAND_BYTES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean equalsAt(int offset, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(int offset, int length) {
+        if (length < 0) {
+            return null;
+        }
+        if (length == 0) {
+            return "";
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
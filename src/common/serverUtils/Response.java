@@ -1,11 +1,22 @@
 package common.serverUtils;
 
-import java.io.Serializable;
+import common.HumanBeing;
+
 import java.net.InetSocketAddress;
+import java.util.List;
 
-public class Response implements Serializable {
+public class Response {
     private String message;
     private InetSocketAddress clientAddress;
+    private List<HumanBeing> elements;
+    // Можно ли сжать ответ: клиент сообщил об этом в запросе
+    private boolean compressionAccepted;
+    // Идентификатор запроса, на который дан ответ; 0 - ответ не относится к конкретному запросу
+    private long requestId;
+    // Соединение, по которому нужно ответить; null - ответ отправляется датаграммой на clientAddress
+    private ReplyChannel replyChannel;
+    // Через сколько миллисекунд повторить запрос, если сервер перегружен; 0 - запрос выполнен
+    private int retryAfter;
 
     public Response(String message) {
         this.message = message;
@@ -24,6 +35,46 @@ public class Response implements Serializable {
         this.message = message;
     }
 
+    public List<HumanBeing> getElements() {
+        return elements;
+    }
+
+    public void setElements(List<HumanBeing> elements) {
+        this.elements = elements;
+    }
+
+    public boolean isCompressionAccepted() {
+        return compressionAccepted;
+    }
+
+    public void setCompressionAccepted(boolean compressionAccepted) {
+        this.compressionAccepted = compressionAccepted;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    public ReplyChannel getReplyChannel() {
+        return replyChannel;
+    }
+
+    public void setReplyChannel(ReplyChannel replyChannel) {
+        this.replyChannel = replyChannel;
+    }
+
     public void setClientAddress(InetSocketAddress clientAddress) {
         this.clientAddress = clientAddress;
     }
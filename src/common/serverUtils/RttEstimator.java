@@ -0,0 +1,71 @@
+package common.serverUtils;
+
+/**
+ * Оценка времени кругового обхода (RTT) и тайм-аута повторной передачи по Якобсону - Карелсу.
+ * <p>
+ * Ведутся сглаженное RTT и его среднее отклонение: {@code srtt += (r - srtt) / 8},
+ * {@code rttvar += (|r - srtt| - rttvar) / 4}; тайм-аут равен {@code srtt + 4 * rttvar}.
+ * До первого замера используется начальный тайм-аут. При каждой повторной передаче тайм-аут
+ * удваивается, а следующий замер снова вычисляет его по оценкам. Замеры по повторно
+ * переданным пакетам делать нельзя (алгоритм Карна): неизвестно, на какую из отправок пришёл ответ.
+ * </p>
+ */
+public class RttEstimator {
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final int DEVIATION_FACTOR = 4;
+
+    private final long minTimeOut;
+    private final long maxTimeOut;
+    private double smoothedRtt = -1;
+    private double rttVariance;
+    private long timeOut;
+
+    /**
+     * Конструктор оценки.
+     *
+     * @param initialTimeOut тайм-аут до первого замера (мс)
+     * @param minTimeOut     нижняя граница тайм-аута (мс)
+     * @param maxTimeOut     верхняя граница тайм-аута (мс)
+     */
+    public RttEstimator(long initialTimeOut, long minTimeOut, long maxTimeOut) {
+        this.minTimeOut = minTimeOut;
+        this.maxTimeOut = maxTimeOut;
+        this.timeOut = initialTimeOut;
+    }
+
+    /**
+     * Учитывает замер RTT.
+     *
+     * @param rtt время от отправки до ответа (мс)
+     */
+    public synchronized void sample(long rtt) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2.0;
+        } else {
+            rttVariance += BETA * (Math.abs(rtt - smoothedRtt) - rttVariance);
+            smoothedRtt += ALPHA * (rtt - smoothedRtt);
+        }
+        // Слагаемое в 1 мс не даёт тайм-ауту совпасть с RTT, когда разброс замеров нулевой
+        timeOut = clamp(Math.round(smoothedRtt + Math.max(1, DEVIATION_FACTOR * rttVariance)));
+    }
+
+    /**
+     * Удваивает тайм-аут после его истечения.
+     */
+    public synchronized void backOff() {
+        timeOut = clamp(timeOut * 2);
+    }
+
+    /**
+     * @return текущий тайм-аут повторной передачи (мс)
+     */
+    public synchronized long getTimeOut() {
+        return timeOut;
+    }
+
+    private long clamp(long value) {
+        return Math.max(minTimeOut, Math.min(maxTimeOut, value));
+    }
+}
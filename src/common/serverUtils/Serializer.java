@@ -1,28 +1,222 @@
 package common.serverUtils;
 
-import common.exeptions.SerializeException;
+import common.HumanBeing;
 
-import java.io.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32C;
 
+/**
+ * Двоичный протокол обмена сообщениями между клиентом и сервером.
+ * <p>
+ * Формат заголовка: сигнатура (2 байта), версия протокола (1 байт), тип сообщения (1 байт),
+ * флаги (1 байт), длина тела (4 байта), контрольная сумма CRC32C тела (4 байта). Тело каждого типа сообщения
+ * кодируется вручную, поэтому в пакет не попадают описания классов, а адрес клиента не
+ * передаётся вовсе - получатель берёт его из датаграммы. Записи коллекции кодируются
+ * {@link HumanBeingCodec}.
+ * </p>
+ * <p>
+ * Тело запроса и ответа начинается с идентификатора запроса (8 байт): клиент назначает его,
+ * сервер повторяет в ответе, и клиент сопоставляет ответы запросам, даже если они пришли
+ * не по порядку или с опозданием. Ответ перегруженного сервера содержит время (мс),
+ * через которое запрос стоит повторить.
+ * </p>
+ * <p>
+ * Сжатие согласуется для каждого запроса: клиент отмечает флагом {@link #ACCEPTS_COMPRESSION},
+ * что понимает сжатые ответы, и только тогда сервер сжимает большие ответы ({@link Compression}).
+ * Сжатое тело отмечается флагом {@link #COMPRESSED}; контрольная сумма считается по переданным байтам.
+ * </p>
+ */
 public class Serializer {
-    // я нагло спер этот код из стаковерфлоа
+    public static final short MAGIC = 0x4C37;
+    public static final byte VERSION = 5;
+    public static final int HEADER_SIZE = 2 + 1 + 1 + 1 + 4 + 4;
+    /**
+     * Тип сообщения: запрос клиента.
+     */
+    public static final byte REQUEST = 1;
+    /**
+     * Тип сообщения: ответ сервера.
+     */
+    public static final byte RESPONSE = 2;
+    /**
+     * Флаг: тело сообщения сжато.
+     */
+    public static final byte COMPRESSED = 1;
+    /**
+     * Флаг запроса: клиент принимает сжатые ответы.
+     */
+    public static final byte ACCEPTS_COMPRESSION = 2;
 
-    public static byte[] serialize(Serializable obj) {
-        try(ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()){
-            try(ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)){
-                objectOutputStream.writeObject(obj);
-            }
-            return byteArrayOutputStream.toByteArray();
-        } catch (IOException e) {
-            throw new SerializeException();
+    public static byte[] serialize(Request request) {
+        WireWriter writer = beginMessage(REQUEST);
+        writer.writeLong(request.getRequestId());
+        writer.writeString(request.getClientRequest());
+        writer.writeString(request.getDataRequest());
+        writer.writeString(request.getLogin());
+        writer.writeString(request.getPassword());
+        writer.writeByte(request.getHumanBeing() == null ? 0 : 1);
+        if (request.getHumanBeing() != null) {
+            new HumanBeingCodec(false).encode(request.getHumanBeing(), writer);
+        }
+        writeElements(writer, request.getElements());
+        // Сервер той же версии протокола всегда понимает сжатые запросы
+        return finishMessage(writer, request.isCompressionAccepted() ? ACCEPTS_COMPRESSION : 0, request.isCompressionAccepted());
+    }
+
+    public static byte[] serialize(Response response) {
+        WireWriter writer = beginMessage(RESPONSE);
+        writer.writeLong(response.getRequestId());
+        writer.writeString(response.getMessage());
+        writer.writeVarInt(response.getRetryAfter());
+        writeElements(writer, response.getElements());
+        return finishMessage(writer, 0, response.isCompressionAccepted());
+    }
+
+    /**
+     * Восстанавливает сообщение, проверив заголовок и контрольную сумму.
+     *
+     * @param bytes принятое сообщение
+     * @return {@link Request} или {@link Response}
+     * @throws IOException если сообщение повреждено или записано другой версией протокола
+     */
+    public static Object deserialize(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte type = readHeader(buffer, new CRC32C());
+        byte flags = flagsOf(buffer, 0);
+        WireReader reader = new WireReader((flags & COMPRESSED) != 0 ? Compression.inflate(buffer) : buffer);
+        switch (type) {
+            case REQUEST:
+                long requestId = reader.readLong();
+                String clientRequest = reader.readString();
+                Request request = new Request(clientRequest, reader.readString());
+                request.setRequestId(requestId);
+                request.setLogin(reader.readString());
+                request.setPassword(reader.readString());
+                request.setCompressionAccepted((flags & ACCEPTS_COMPRESSION) != 0);
+                readRequestBody(request, reader);
+                return request;
+            case RESPONSE:
+                long respondedId = reader.readLong();
+                Response response = new Response(reader.readString());
+                response.setRequestId(respondedId);
+                response.setRetryAfter(reader.readVarInt());
+                response.setElements(readElements(reader));
+                return response;
+            default:
+                throw new IOException("Неизвестный тип сообщения: " + type);
+        }
+    }
+
+    /**
+     * Проверяет заголовок и контрольную сумму сообщения, не копируя его.
+     * После вызова позиция буфера указывает на начало тела.
+     *
+     * @param buffer буфер с сообщением, подготовленный для чтения
+     * @param crc    вычислитель контрольной суммы (сбрасывается перед использованием)
+     * @return тип сообщения
+     * @throws IOException если сообщение повреждено или записано другой версией протокола
+     */
+    static byte readHeader(ByteBuffer buffer, CRC32C crc) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getShort() != MAGIC) {
+            throw new IOException("Поврежденное сообщение: неверный заголовок");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Неподдерживаемая версия протокола: " + version);
+        }
+        byte type = buffer.get();
+        buffer.get();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length != buffer.remaining()) {
+            throw new IOException("Поврежденное сообщение: неверная длина");
+        }
+        int body = buffer.position();
+        crc.reset();
+        crc.update(buffer);
+        buffer.position(body);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Поврежденное сообщение: не совпала контрольная сумма");
         }
+        return type;
+    }
+
+    /**
+     * Возвращает флаги сообщения, не сдвигая позицию буфера.
+     *
+     * @param buffer буфер с сообщением
+     * @param start  позиция начала сообщения
+     * @return флаги
+     */
+    static byte flagsOf(ByteBuffer buffer, int start) {
+        return buffer.get(start + 4);
+    }
+
+    /**
+     * Разбирает часть запроса после строковых полей: одиночную запись и список записей.
+     *
+     * @param request запрос, в который записываются разобранные поля
+     * @param reader  откуда читать
+     */
+    static void readRequestBody(Request request, WireReader reader) throws IOException {
+        if (reader.readByte() != 0) {
+            request.setHumanBeing(new HumanBeingCodec(false).decode(reader));
+        }
+        request.setElements(readElements(reader));
+    }
+
+    /**
+     * Записывает список записей коллекции (дамп), если он есть.
+     */
+    private static void writeElements(WireWriter writer, List<HumanBeing> elements) {
+        writer.writeByte(elements == null ? 0 : 1);
+        if (elements != null) {
+            HumanBeingCodec.encodeAll(elements, writer);
+        }
+    }
+
+    private static List<HumanBeing> readElements(WireReader reader) throws IOException {
+        return reader.readByte() == 0 ? null : HumanBeingCodec.decodeAll(reader);
+    }
+
+    private static WireWriter beginMessage(byte type) {
+        WireWriter writer = new WireWriter();
+        writer.writeByte(MAGIC >>> 8);
+        writer.writeByte(MAGIC);
+        writer.writeByte(VERSION);
+        writer.writeByte(type);
+        writer.writeByte(0);
+        writer.writeInt(0);
+        writer.writeInt(0);
+        return writer;
     }
 
-    public static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
-        try(ByteArrayInputStream b = new ByteArrayInputStream(bytes)){
-            try(ObjectInputStream o = new ObjectInputStream(b)){
-                return o.readObject();
+    /**
+     * Заполняет заголовок и при необходимости сжимает тело.
+     *
+     * @param flags    флаги сообщения
+     * @param compress можно ли сжимать тело
+     */
+    private static byte[] finishMessage(WireWriter writer, int flags, boolean compress) {
+        int length = writer.size() - HEADER_SIZE;
+        if (compress && length >= Compression.THRESHOLD) {
+            byte[] compressed = Compression.deflate(writer.buffer(), HEADER_SIZE, length);
+            if (compressed != null) {
+                WireWriter compressedWriter = new WireWriter(HEADER_SIZE + compressed.length);
+                compressedWriter.writeBytes(writer.buffer(), 0, HEADER_SIZE);
+                compressedWriter.writeBytes(compressed, 0, compressed.length);
+                writer = compressedWriter;
+                length = compressed.length;
+                flags |= COMPRESSED;
             }
         }
+        CRC32C crc = new CRC32C();
+        crc.update(writer.buffer(), HEADER_SIZE, length);
+        writer.buffer()[4] = (byte) flags;
+        writer.putInt(5, length);
+        writer.putInt(9, (int) crc.getValue());
+        return writer.toByteArray();
     }
 }
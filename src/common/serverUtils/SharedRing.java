@@ -0,0 +1,284 @@
+package common.serverUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.SocketTimeoutException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Кольцевой буфер сообщений в отображённом в память файле: один писатель и один читатель,
+ * которые могут находиться в разных процессах.
+ * <p>
+ * Формат файла: ёмкость области данных (4 байта), поколение писателя (8 байт, смещение 8)
+ * и позиция, с которой оно начинается (8 байт, смещение 16), позиция читателя (8 байт, смещение 64),
+ * позиция писателя (8 байт, смещение 128), затем область данных. Позиции только растут,
+ * а в область данных отображаются по модулю ёмкости. Позиции лежат в разных строках кэша,
+ * чтобы писатель и читатель не мешали друг другу. Сообщение записывается как длина (4 байта)
+ * и байты сообщения; большие сообщения передаются частями
+ * по четверти ёмкости, так что читатель разбирает начало, пока писатель дописывает конец.
+ * </p>
+ * <p>
+ * Писатель может умереть посреди сообщения. Новый писатель вызывает {@link #restart()}:
+ * поколение увеличивается, и читатель, заметив это, отбрасывает недописанное сообщение
+ * и продолжает с позиции, где начинаются данные нового писателя.
+ * </p>
+ * <p>
+ * Ожидание: сначала активное ({@link Thread#onSpinWait()}, если процессоров больше одного),
+ * затем короткие засыпания.
+ * Разбудить поток другого процесса нельзя, поэтому засыпания ограничены по времени.
+ * </p>
+ */
+public class SharedRing implements AutoCloseable {
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int CAPACITY_OFFSET = 0;
+    private static final int GENERATION_OFFSET = 8;
+    private static final int RESTART_OFFSET = 16;
+    private static final int HEAD_OFFSET = 64;
+    private static final int TAIL_OFFSET = 128;
+    private static final int DATA_OFFSET = 192;
+    // На одном процессоре активное ожидание только отнимает время у собеседника
+    private static final int SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 20_000 : 0;
+    private static final long PARK_NANOS = 50_000;
+    private static final int MIN_CAPACITY = 1024;
+
+    private final FileChannel file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    // Поколение писателя, сообщения которого разбирает читатель
+    private long generation;
+
+    private SharedRing(FileChannel file, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.generation = (long) LONGS.getAcquire(buffer, GENERATION_OFFSET);
+    }
+
+    /**
+     * Создаёт пустой кольцевой буфер, перезаписывая файл.
+     *
+     * @param path     путь к файлу
+     * @param capacity ёмкость области данных, байт
+     * @return кольцевой буфер
+     */
+    public static SharedRing create(Path path, int capacity) throws IOException {
+        if (capacity < MIN_CAPACITY) {
+            throw new IllegalArgumentException("Ёмкость кольцевого буфера меньше " + MIN_CAPACITY);
+        }
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + capacity);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        LONGS.setRelease(buffer, RESTART_OFFSET, 0L);
+        LONGS.setRelease(buffer, GENERATION_OFFSET, 0L);
+        LONGS.setRelease(buffer, HEAD_OFFSET, 0L);
+        LONGS.setRelease(buffer, TAIL_OFFSET, 0L);
+        return new SharedRing(file, buffer, capacity);
+    }
+
+    /**
+     * Открывает кольцевой буфер, созданный {@link #create}.
+     *
+     * @param path путь к файлу
+     * @return кольцевой буфер
+     * @throws IOException если файла нет или он не является кольцевым буфером
+     */
+    public static SharedRing open(Path path) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = file.size();
+            if (size <= DATA_OFFSET || size > Integer.MAX_VALUE) {
+                throw new IOException("Файл " + path + " не является кольцевым буфером");
+            }
+            MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            int capacity = buffer.getInt(CAPACITY_OFFSET);
+            if (capacity < MIN_CAPACITY || capacity != size - DATA_OFFSET) {
+                throw new IOException("Файл " + path + " не является кольцевым буфером");
+            }
+            return new SharedRing(file, buffer, capacity);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Записывает сообщение. Вызывается только писателем.
+     *
+     * @param message сообщение
+     * @param timeOut наибольшее время ожидания места в буфере, мс
+     * @throws SocketTimeoutException если читатель не освободил место вовремя
+     */
+    public void write(byte[] message, long timeOut) throws IOException {
+        byte[] length = {(byte) (message.length >>> 24), (byte) (message.length >>> 16),
+                (byte) (message.length >>> 8), (byte) message.length};
+        long tail = (long) LONGS.getOpaque(buffer, TAIL_OFFSET);
+        tail = put(tail, length, 0, 4, timeOut);
+        int offset = 0;
+        while (offset < message.length) {
+            int count = Math.min(message.length - offset, capacity / 4);
+            tail = put(tail, message, offset, count, timeOut);
+            offset += count;
+        }
+    }
+
+    /**
+     * Начинает новое поколение писателя. Вызывается писателем при подключении, до записи
+     * первого сообщения: всё, что оставил в буфере прежний писатель, читатель пропустит.
+     */
+    public void restart() {
+        LONGS.setRelease(buffer, RESTART_OFFSET, (long) LONGS.getOpaque(buffer, TAIL_OFFSET));
+        LONGS.setRelease(buffer, GENERATION_OFFSET, (long) LONGS.getOpaque(buffer, GENERATION_OFFSET) + 1);
+    }
+
+    /**
+     * Читает сообщение. Вызывается только читателем.
+     * <p>
+     * Если сообщение не дописано за время ожидания, начатое сообщение пропускается целиком
+     * вместе со всем, что уже есть в буфере, чтобы следующее чтение началось с границы сообщения.
+     * </p>
+     *
+     * @param timeOut наибольшее время ожидания очередной порции данных, мс; отрицательное - без ограничения
+     * @return сообщение
+     * @throws SocketTimeoutException если данные не пришли вовремя
+     */
+    public byte[] read(long timeOut) throws IOException {
+        while (true) {
+            byte[] message = readMessage(timeOut);
+            if (message != null) {
+                return message;
+            }
+        }
+    }
+
+    /**
+     * @return сообщение или null, если писатель сменился и чтение нужно начать заново
+     */
+    private byte[] readMessage(long timeOut) throws IOException {
+        long head = (long) LONGS.getOpaque(buffer, HEAD_OFFSET);
+        byte[] length = new byte[4];
+        head = take(head, length, 0, 4, timeOut);
+        if (head < 0) {
+            return null;
+        }
+        int size = ((length[0] & 0xFF) << 24) | ((length[1] & 0xFF) << 16) | ((length[2] & 0xFF) << 8) | (length[3] & 0xFF);
+        if (size < 0 || size > Fragment.MAX_MESSAGE_SIZE) {
+            skipAll();
+            throw new IOException("Поврежденное сообщение: неверная длина");
+        }
+        byte[] message = new byte[size];
+        int offset = 0;
+        while (offset < size) {
+            int count = Math.min(size - offset, capacity / 4);
+            try {
+                head = take(head, message, offset, count, timeOut);
+            } catch (SocketTimeoutException e) {
+                skipAll();
+                throw e;
+            }
+            if (head < 0) {
+                return null;
+            }
+            offset += count;
+        }
+        return message;
+    }
+
+    /**
+     * Пропускает всё, что уже записано в буфер. Вызывается только читателем, например
+     * после подключения к буферу, в котором остались сообщения прежнего собеседника.
+     */
+    public void skipAll() {
+        LONGS.setRelease(buffer, HEAD_OFFSET, (long) LONGS.getAcquire(buffer, TAIL_OFFSET));
+    }
+
+    private long put(long tail, byte[] source, int offset, int count, long timeOut) throws IOException {
+        long deadline = System.nanoTime() + timeOut * 1_000_000;
+        int spins = 0;
+        while (tail + count - (long) LONGS.getAcquire(buffer, HEAD_OFFSET) > capacity) {
+            spins = idle(spins, deadline, timeOut);
+        }
+        copy(tail, source, offset, count, true);
+        LONGS.setRelease(buffer, TAIL_OFFSET, tail + count);
+        return tail + count;
+    }
+
+    /**
+     * @return новая позиция читателя или -1, если сменилось поколение писателя
+     */
+    private long take(long head, byte[] target, int offset, int count, long timeOut) throws IOException {
+        long deadline = System.nanoTime() + timeOut * 1_000_000;
+        int spins = 0;
+        while ((long) LONGS.getAcquire(buffer, TAIL_OFFSET) - head < count) {
+            if (resynchronize()) {
+                return -1;
+            }
+            spins = idle(spins, deadline, timeOut);
+        }
+        // Новый писатель меняет поколение раньше, чем пишет данные, поэтому после чтения
+        // позиции писателя смена поколения уже видна
+        if (resynchronize()) {
+            return -1;
+        }
+        copy(head, target, offset, count, false);
+        LONGS.setRelease(buffer, HEAD_OFFSET, head + count);
+        return head + count;
+    }
+
+    /**
+     * Переходит к данным нового писателя, если он сменился.
+     *
+     * @return true, если поколение сменилось
+     */
+    private boolean resynchronize() {
+        long current = (long) LONGS.getAcquire(buffer, GENERATION_OFFSET);
+        if (current == generation) {
+            return false;
+        }
+        generation = current;
+        LONGS.setRelease(buffer, HEAD_OFFSET, (long) LONGS.getAcquire(buffer, RESTART_OFFSET));
+        return true;
+    }
+
+    private void copy(long position, byte[] bytes, int offset, int count, boolean toRing) {
+        int index = (int) (position % capacity);
+        int first = Math.min(count, capacity - index);
+        if (toRing) {
+            buffer.put(DATA_OFFSET + index, bytes, offset, first);
+            buffer.put(DATA_OFFSET, bytes, offset + first, count - first);
+        } else {
+            buffer.get(DATA_OFFSET + index, bytes, offset, first);
+            buffer.get(DATA_OFFSET, bytes, offset + first, count - first);
+        }
+    }
+
+    private static int idle(int spins, long deadline, long timeOut) throws IOException {
+        if (timeOut >= 0 && System.nanoTime() - deadline > 0) {
+            throw new SocketTimeoutException();
+        }
+        if (spins < SPIN_LIMIT) {
+            Thread.onSpinWait();
+            return spins + 1;
+        }
+        if (Thread.interrupted()) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        LockSupport.parkNanos(PARK_NANOS);
+        return spins;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
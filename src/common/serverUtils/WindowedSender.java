@@ -0,0 +1,359 @@
+package common.serverUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Надёжная отправка многофрагментного сообщения скользящим окном.
+ * <p>
+ * Одновременно в сети находится не больше фрагментов, чем позволяет окно перегрузки.
+ * Получатель отвечает подтверждениями {@link Acknowledgement} с маской выборочного подтверждения,
+ * по которым отправитель повторяет только потерянные фрагменты: фрагмент считается потерянным,
+ * если подтверждены как минимум {@link #DUPLICATE_THRESHOLD} фрагмента, отправленных после него,
+ * либо если истёк тайм-аут повторной передачи.
+ * </p>
+ * <p>
+ * Размер окна регулируется по схеме AIMD: медленный старт до порога, затем аддитивный рост
+ * на один фрагмент за окно; при потере окно и порог уменьшаются вдвое (не чаще раза за окно),
+ * при тайм-ауте окно сбрасывается до одного фрагмента.
+ * </p>
+ * <p>
+ * Тайм-аут повторной передачи вычисляет {@link RttEstimator}; отправитель может получить
+ * оценку, общую для всех передач одному получателю, чтобы каждая новая передача
+ * не начинала с начального тайм-аута.
+ * </p>
+ */
+public class WindowedSender {
+    private static final double INITIAL_WINDOW = 4;
+    private static final double MIN_THRESHOLD = 2;
+    private static final double MAX_WINDOW = 256;
+    private static final int DUPLICATE_THRESHOLD = 3;
+    private static final long INITIAL_RETRANSMISSION_TIME_OUT = 200;
+    private static final long MIN_RETRANSMISSION_TIME_OUT = 20;
+    private static final long MAX_RETRANSMISSION_TIME_OUT = 2000;
+    /**
+     * Время без продвижения передачи, после которого отправка прекращается (мс).
+     */
+    private static final long GIVE_UP_TIME_OUT = 10000;
+
+    private static final byte NOT_SENT = 0;
+    private static final byte IN_FLIGHT = 1;
+    private static final byte LOST = 2;
+    private static final byte ACKED = 3;
+
+    /**
+     * Способ отправки готовой датаграммы получателю. Буфер датаграммы принадлежит пулу
+     * и не должен использоваться после возврата из метода.
+     */
+    public interface DatagramSink {
+        void send(ByteBuffer datagram) throws IOException;
+    }
+
+    /**
+     * Источник подтверждений от получателя.
+     */
+    public interface AcknowledgementSource {
+        /**
+         * Ожидает очередное подтверждение.
+         *
+         * @param timeOut максимальное время ожидания (мс)
+         * @return подтверждение или null, если за это время подтверждений не пришло
+         */
+        Acknowledgement poll(long timeOut) throws IOException, InterruptedException;
+    }
+
+    private final BufferPool bufferPool = BufferPool.getInstance();
+    private final List<Fragment> fragments;
+    private final DatagramSink sink;
+    private final long transferId;
+    private final int total;
+    private final RttEstimator rtt;
+
+    private final byte[] state;
+    private final long[] sentAt;
+    private final int[] sendOrder;
+    private final boolean[] retransmitted;
+    /**
+     * Отправленные фрагменты в порядке отправки: (номер отправки << 32) | номер фрагмента.
+     */
+    private final ArrayDeque<Long> inFlightQueue = new ArrayDeque<>();
+    /**
+     * Потерянные фрагменты. Повторяются начиная с меньших номеров: получатель может выборочно
+     * подтвердить только {@link Acknowledgement#SELECTIVE_RANGE} фрагментов после кумулятивного
+     * подтверждения, поэтому сначала нужно закрыть разрыв у его границы.
+     */
+    private final BitSet lost = new BitSet();
+
+    private int nextNew = 0;
+    private int ackedPrefix = 0;
+    private int ackedCount = 0;
+    private int inFlight = 0;
+    private int transmissions = 0;
+    private int highestAckedOrder = 0;
+    private int recoveryPoint = 0;
+    private double window = INITIAL_WINDOW;
+    private double threshold = MAX_WINDOW;
+    private long lastProgress = System.currentTimeMillis();
+
+    /**
+     * Конструктор отправителя.
+     *
+     * @param fragments фрагменты одного сообщения (см. {@link Fragment#split})
+     * @param sink      способ отправки датаграмм
+     */
+    public WindowedSender(List<Fragment> fragments, DatagramSink sink) {
+        this(fragments, sink, new RttEstimator(INITIAL_RETRANSMISSION_TIME_OUT,
+                MIN_RETRANSMISSION_TIME_OUT, MAX_RETRANSMISSION_TIME_OUT));
+    }
+
+    /**
+     * Конструктор отправителя с общей оценкой RTT.
+     *
+     * @param fragments фрагменты одного сообщения (см. {@link Fragment#split})
+     * @param sink      способ отправки датаграмм
+     * @param rtt       оценка RTT до получателя
+     */
+    public WindowedSender(List<Fragment> fragments, DatagramSink sink, RttEstimator rtt) {
+        this.rtt = rtt;
+        this.fragments = fragments;
+        this.sink = sink;
+        this.transferId = fragments.get(0).getTransferId();
+        this.total = fragments.size();
+        this.state = new byte[total];
+        this.sentAt = new long[total];
+        this.sendOrder = new int[total];
+        this.retransmitted = new boolean[total];
+    }
+
+    /**
+     * Выполняет передачу до подтверждения всех фрагментов, блокируя вызывающий поток.
+     *
+     * @param acknowledgements источник подтверждений от получателя
+     * @return true, если все фрагменты подтверждены, false, если получатель перестал отвечать
+     */
+    public boolean transfer(AcknowledgementSource acknowledgements) throws IOException, InterruptedException {
+        while (!isComplete()) {
+            long now = System.currentTimeMillis();
+            pump(now);
+            Acknowledgement acknowledgement = acknowledgements.poll(Math.max(1, nextDeadline() - now));
+            now = System.currentTimeMillis();
+            if (acknowledgement != null) {
+                onAcknowledgement(acknowledgement, now);
+            }
+            if (hasFailed(now)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Продвигает передачу: обрабатывает истёкший тайм-аут повторной передачи и отправляет
+     * фрагменты, пока позволяет окно. Позволяет одному потоку вести несколько передач сразу.
+     *
+     * @param now текущее время (мс)
+     */
+    public void pump(long now) throws IOException {
+        long oldest = oldestInFlight();
+        if (oldest >= 0 && now - oldest >= rtt.getTimeOut()) {
+            onTimeOut();
+        }
+        sendWithinWindow();
+    }
+
+    /**
+     * Возвращает момент, не позже которого нужно снова вызвать {@link #pump}.
+     *
+     * @return время (мс)
+     */
+    public long nextDeadline() {
+        long oldest = oldestInFlight();
+        long retransmissionTimeOut = rtt.getTimeOut();
+        long deadline = oldest < 0 ? System.currentTimeMillis() + retransmissionTimeOut : oldest + retransmissionTimeOut;
+        return Math.min(deadline, lastProgress + GIVE_UP_TIME_OUT + 1);
+    }
+
+    /**
+     * Проверяет, подтверждены ли все фрагменты.
+     *
+     * @return true, если передача завершена
+     */
+    public boolean isComplete() {
+        return ackedCount == total;
+    }
+
+    /**
+     * Проверяет, не перестал ли получатель отвечать.
+     *
+     * @param now текущее время (мс)
+     * @return true, если передача не продвигалась дольше допустимого
+     */
+    public boolean hasFailed(long now) {
+        return !isComplete() && now - lastProgress > GIVE_UP_TIME_OUT;
+    }
+
+    public long getTransferId() {
+        return transferId;
+    }
+
+    /**
+     * Отправляет потерянные, а затем новые фрагменты, пока позволяет окно.
+     */
+    private void sendWithinWindow() throws IOException {
+        while (inFlight < (int) window) {
+            int sequence = lost.nextSetBit(ackedPrefix);
+            if (sequence >= 0) {
+                lost.clear(sequence);
+            } else if (nextNew < total) {
+                sequence = nextNew++;
+            } else {
+                return;
+            }
+            transmit(sequence);
+        }
+    }
+
+    private void transmit(int sequence) throws IOException {
+        ByteBuffer datagram = bufferPool.acquire();
+        try {
+            fragments.get(sequence).writeTo(datagram);
+            datagram.flip();
+            sink.send(datagram);
+        } finally {
+            bufferPool.release(datagram);
+        }
+        retransmitted[sequence] = state[sequence] != NOT_SENT;
+        state[sequence] = IN_FLIGHT;
+        sentAt[sequence] = System.currentTimeMillis();
+        sendOrder[sequence] = ++transmissions;
+        inFlight++;
+        inFlightQueue.add(((long) transmissions << 32) | sequence);
+    }
+
+    /**
+     * Возвращает время отправки самого старого неподтверждённого фрагмента, попутно
+     * убирая из очереди устаревшие записи.
+     *
+     * @return время отправки или -1, если в сети нет фрагментов
+     */
+    private long oldestInFlight() {
+        while (!inFlightQueue.isEmpty()) {
+            long entry = inFlightQueue.peek();
+            int sequence = (int) entry;
+            if (state[sequence] == IN_FLIGHT && sendOrder[sequence] == (int) (entry >>> 32)) {
+                return sentAt[sequence];
+            }
+            inFlightQueue.poll();
+        }
+        return -1;
+    }
+
+    /**
+     * Обрабатывает подтверждение: отмечает подтверждённые фрагменты, увеличивает окно
+     * и определяет потери по выборочным подтверждениям. Подтверждения чужих передач игнорируются.
+     *
+     * @param acknowledgement принятое подтверждение
+     * @param now             текущее время (мс)
+     * @return число впервые подтверждённых фрагментов
+     */
+    public int onAcknowledgement(Acknowledgement acknowledgement, long now) {
+        if (acknowledgement.getTransferId() != transferId) {
+            return 0;
+        }
+        int newlyAcked = 0;
+        int cumulative = Math.min(acknowledgement.getCumulative(), total);
+        for (int sequence = ackedPrefix; sequence < cumulative; sequence++) {
+            newlyAcked += markAcked(sequence, now);
+        }
+        ackedPrefix = Math.max(ackedPrefix, cumulative);
+        long selective = acknowledgement.getSelective();
+        for (int bit = 0; selective != 0 && bit < Acknowledgement.SELECTIVE_RANGE; bit++) {
+            int sequence = cumulative + 1 + bit;
+            if (sequence >= total) {
+                break;
+            }
+            if ((selective & (1L << bit)) != 0) {
+                newlyAcked += markAcked(sequence, now);
+            }
+        }
+
+        if (window < threshold) {
+            window += newlyAcked;
+        } else {
+            window += newlyAcked / window;
+        }
+        window = Math.min(window, MAX_WINDOW);
+
+        detectLosses();
+        if (newlyAcked > 0) {
+            lastProgress = now;
+        }
+        return newlyAcked;
+    }
+
+    private int markAcked(int sequence, long now) {
+        if (state[sequence] == ACKED || state[sequence] == NOT_SENT) {
+            return 0;
+        }
+        if (state[sequence] == IN_FLIGHT) {
+            inFlight--;
+            if (!retransmitted[sequence]) {
+                rtt.sample(now - sentAt[sequence]);
+            }
+        }
+        lost.clear(sequence);
+        state[sequence] = ACKED;
+        ackedCount++;
+        highestAckedOrder = Math.max(highestAckedOrder, sendOrder[sequence]);
+        return 1;
+    }
+
+    /**
+     * Помечает потерянными фрагменты, после которых подтверждено не меньше
+     * {@link #DUPLICATE_THRESHOLD} более поздних отправок.
+     */
+    private void detectLosses() {
+        boolean lossDetected = false;
+        int lostOrder = 0;
+        while (oldestInFlight() >= 0) {
+            long entry = inFlightQueue.peek();
+            int sequence = (int) entry;
+            int order = (int) (entry >>> 32);
+            if (order + DUPLICATE_THRESHOLD > highestAckedOrder) {
+                break;
+            }
+            inFlightQueue.poll();
+            markLost(sequence);
+            lossDetected = true;
+            lostOrder = order;
+        }
+        if (lossDetected && lostOrder > recoveryPoint) {
+            threshold = Math.max(window / 2, MIN_THRESHOLD);
+            window = threshold;
+            recoveryPoint = transmissions;
+        }
+    }
+
+    /**
+     * Обрабатывает истечение тайм-аута: все фрагменты в сети считаются потерянными,
+     * окно сбрасывается, тайм-аут удваивается.
+     */
+    private void onTimeOut() {
+        while (oldestInFlight() >= 0) {
+            markLost((int) (long) inFlightQueue.poll());
+        }
+        threshold = Math.max(window / 2, MIN_THRESHOLD);
+        window = 1;
+        recoveryPoint = transmissions;
+        rtt.backOff();
+    }
+
+    private void markLost(int sequence) {
+        state[sequence] = LOST;
+        inFlight--;
+        lost.set(sequence);
+    }
+}
@@ -0,0 +1,126 @@
+package common.serverUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Чтение полей сообщения, записанных {@link WireWriter}. Выход за границу данных
+ * считается повреждением сообщения.
+ */
+public class WireReader {
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer буфер с данными, подготовленный для чтения
+     */
+    public WireReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public byte readByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+
+    public float readFloat() throws IOException {
+        require(4);
+        return buffer.getFloat();
+    }
+
+    public double readDouble() throws IOException {
+        require(8);
+        return buffer.getDouble();
+    }
+
+    /**
+     * Читает число, записанное {@link WireWriter#writeVarLong}.
+     *
+     * @return число
+     */
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Поврежденное сообщение: слишком длинное число");
+    }
+
+    public int readVarInt() throws IOException {
+        long value = readVarLong();
+        if ((value >>> 32) != 0) {
+            throw new IOException("Поврежденное сообщение: число вне диапазона");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Читает число, записанное {@link WireWriter#writeSignedVarLong}.
+     *
+     * @return число
+     */
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Читает {@code length} байт как строку UTF-8.
+     *
+     * @param length длина строки в байтах
+     * @return строка
+     */
+    public String readUtf8(int length) throws IOException {
+        require(length);
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    /**
+     * Читает строку, записанную {@link WireWriter#writeString}.
+     *
+     * @return строка или null
+     */
+    public String readString() throws IOException {
+        int length = readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IOException("Поврежденное сообщение: неверная длина строки");
+        }
+        return readUtf8(length);
+    }
+
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    private void require(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            throw new IOException("Поврежденное сообщение: данные обрезаны");
+        }
+    }
+}
@@ -1,8 +1,21 @@
 package server.managers;
 
+import common.Car;
+import common.Coordinates;
 import common.HumanBeing;
+import common.WeaponType;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.SAXReader;
+import org.dom4j.io.XMLWriter;
 
 import java.io.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,6 +29,10 @@ public class DumpManager {
     private final String fileName;
     private static final Logger logger = ServerLogger.getInstance();
     private static final DataBaseManager dbManager = new DataBaseManager(new DataBaseConnection());
+    // Разобранная коллекция из файла; разбор XML заметно дороже передачи, поэтому он выполняется
+    // только после изменения файла
+    private List<HumanBeing> cachedCollection = null;
+    private long cachedModified = 0;
 
     /**
      * Конструктор менеджера дампа.
@@ -27,44 +44,118 @@ public class DumpManager {
     }
 
     /**
-     * Сохраняет коллекцию {@link HumanBeing} в XML-файл, принимая XML-дамп в виде строки.
-     * Получает XML-дамп коллекции в виде строки, парсит его и сохраняет в файл.
-     * В случае ошибки выводит сообщение в консоль.
+     * Сохраняет коллекцию {@link HumanBeing}, присланную клиентом, в XML-файл.
+     * В случае ошибки выводит сообщение в лог.
      *
-     * @param xmlData XML-дамп коллекции для сохранения
+     * @param collection записи коллекции для сохранения
+     * @return true, если коллекция записана в файл
      */
-    public void writeCollection(String xmlData) {
+    public synchronized boolean writeCollection(List<HumanBeing> collection) {
         try {
-            org.dom4j.io.SAXReader reader = new org.dom4j.io.SAXReader();
-            org.dom4j.Document document = reader.read(new java.io.StringReader(xmlData));
-            org.dom4j.io.OutputFormat format = org.dom4j.io.OutputFormat.createPrettyPrint();
+            Document document = DocumentHelper.createDocument();
+            Element rootElement = document.addElement("humanBeings");
+
+            for (HumanBeing humanBeing : collection) {
+                Element humanElement = rootElement.addElement("humanBeing").addAttribute("id", String.valueOf(humanBeing.getId()));
+
+                humanElement.addElement("name").setText(humanBeing.getName());
+
+                Element coordinates = humanElement.addElement("coordinates");
+                coordinates.addElement("x").setText(String.valueOf(humanBeing.getCoordinates().getX()));
+                coordinates.addElement("y").setText(humanBeing.getCoordinates().getY() != null ? String.valueOf(humanBeing.getCoordinates().getY()) : "");
+
+                humanElement.addElement("creationDate").setText(humanBeing.getCreationDate().toString());
+                humanElement.addElement("realHero").setText(humanBeing.getRealHero() != null ? String.valueOf(humanBeing.getRealHero()) : "");
+                humanElement.addElement("hasToothpick").setText(humanBeing.getHasToothpick() != null ? String.valueOf(humanBeing.getHasToothpick()) : "");
+                humanElement.addElement("impactSpeed").setText(String.valueOf(humanBeing.getImpactSpeed()));
+                humanElement.addElement("soundtrackName").setText(String.valueOf(humanBeing.getSoundtrackName()));
+                humanElement.addElement("minutesOfWaiting").setText(humanBeing.getMinutesOfWaiting() != null ? String.valueOf(humanBeing.getMinutesOfWaiting()) : "");
+                humanElement.addElement("weaponType").setText(String.valueOf(humanBeing.getWeaponType()));
+
+                Element carElement = humanElement.addElement("car");
+                carElement.addElement("name").setText(humanBeing.getCar() != null ? String.valueOf(humanBeing.getCar()) : "");
+            }
+
+            OutputFormat format = OutputFormat.createPrettyPrint();
             format.setEncoding("UTF-8");
             try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-                org.dom4j.io.XMLWriter xmlWriter = new org.dom4j.io.XMLWriter(writer, format);
+                XMLWriter xmlWriter = new XMLWriter(writer, format);
                 xmlWriter.write(document);
             }
+            cachedCollection = List.copyOf(collection);
+            cachedModified = new File(fileName).lastModified();
+            return true;
         } catch (Exception e) {
             logger.log(Level.WARNING, "Ошибка при сохранении коллекции: " + e.getMessage());
+            return false;
         }
     }
 
     /**
-     * Возвращает XML-дамп коллекции, считанной из файла (или текущей коллекции).
-     * Используется для передачи коллекции клиенту по сети.
+     * Загружает коллекцию {@link HumanBeing} из XML-файла для передачи клиенту.
+     * Файл разбирается заново, только если он изменился с прошлого чтения.
+     * Элементы, которые не удалось разобрать, пропускаются с сообщением в лог.
      *
-     * @return XML-дамп коллекции или пустую строку в случае ошибки
+     * @return записи коллекции (без владельца) или пустой список в случае ошибки
      */
-    public String readCollection() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-            StringBuilder xmlContent = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                xmlContent.append(line).append("\n");
+    public synchronized List<HumanBeing> readCollection() {
+        long modified = new File(fileName).lastModified();
+        if (cachedCollection == null || modified != cachedModified) {
+            cachedCollection = List.copyOf(parseCollection());
+            cachedModified = modified;
+        }
+        return cachedCollection;
+    }
+
+    private List<HumanBeing> parseCollection() {
+        List<HumanBeing> collection = new ArrayList<>();
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(fileName))) {
+            SAXReader reader = new SAXReader();
+            Document document = reader.read(fileReader);
+            Element root = document.getRootElement();
+
+            for (Element humanElement : root.elements("humanBeing")) {
+                try {
+                    int id = Integer.parseInt(humanElement.attributeValue("id"));
+
+                    String name = humanElement.elementText("name");
+                    LocalDate creationDate = LocalDate.parse(humanElement.elementText("creationDate"));
+
+                    Element coordElement = humanElement.element("coordinates");
+                    long x = Long.parseLong(coordElement.elementText("x"));
+                    Float y = !Objects.equals(coordElement.elementText("y"), "") ? Float.parseFloat(coordElement.elementText("y")) : null;
+                    Coordinates coordinates = new Coordinates.Builder().x(x).y(y).build();
+
+                    Boolean realHero = !Objects.equals(humanElement.elementText("realHero"), "") ? Boolean.parseBoolean(humanElement.elementText("realHero")) : null;
+                    Boolean hasToothpick = !Objects.equals(humanElement.elementText("hasToothpick"), "") ? Boolean.parseBoolean(humanElement.elementText("hasToothpick")) : null;
+                    float impactSpeed = Float.parseFloat(humanElement.elementText("impactSpeed"));
+                    String soundtrackName = humanElement.elementText("soundtrackName");
+                    Double minutesOfWaiting = !Objects.equals(humanElement.elementText("minutesOfWaiting"), "") ? Double.parseDouble(humanElement.elementText("minutesOfWaiting")) : null;
+                    WeaponType weaponType = WeaponType.valueOf(humanElement.elementText("weaponType"));
+
+                    Element carElement = humanElement.element("car");
+                    String nameCar = carElement.elementText("name");
+                    Car car = new Car.Builder().name(nameCar).build();
+
+                    HumanBeing human = new HumanBeing.Builder(id, creationDate).name(name)
+                            .coordinates(coordinates)
+                            .realHero(realHero)
+                            .hasToothpick(hasToothpick)
+                            .impactSpeed(impactSpeed)
+                            .soundtrackName(soundtrackName)
+                            .minutesOfWaiting(minutesOfWaiting)
+                            .weaponType(weaponType)
+                            .car(car)
+                            .build(null);
+
+                    collection.add(human);
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Ошибка парсинга элемента humanBeing: " + e.getMessage());
+                }
             }
-            return xmlContent.toString();
         } catch (Exception e) {
             logger.log(Level.WARNING, "Ошибка при чтении XML-дампа: " + e.getMessage());
-            return "";
         }
+        return collection;
     }
 }
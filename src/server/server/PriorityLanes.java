@@ -0,0 +1,198 @@
+package server.server;
+
+import server.utils.ServerConfig;
+import server.utils.ServerLogger;
+import server.utils.ServerMetrics;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Полосы выполнения запросов разных классов ({@link RequestLane}) над рабочими потоками сервера.
+ * <p>
+ * У полос нет своих потоков: задачи выполняют те рабочие потоки, которые их ставят (рабочие потоки
+ * кольца шарда, пулы потоковых транспортов), поэтому полоса не добавляет
+ * передачи запроса в другой поток. Поставив задачу, поток выполняет готовые задачи полос,
+ * пока они есть, и только затем возвращается к своему источнику запросов.
+ * </p>
+ * <p>
+ * У каждой полосы своя ограниченная очередь и свой бюджет - наибольшее число потоков,
+ * одновременно занятых её запросами. Бюджет массовой полосы меньше числа рабочих потоков,
+ * поэтому долгие выгрузки коллекции не могут занять все потоки, и интерактивный запрос всегда
+ * находит свободный. Задача полосы, исчерпавшей бюджет, ждёт в очереди: её выполнит поток,
+ * закончивший задачу этой же полосы. Готовая полоса выбирается строго по приоритету или
+ * взвешенно (плавный взвешенный круговой выбор), см. {@link ServerConfig#LANE_SCHEDULING}.
+ * </p>
+ */
+public class PriorityLanes {
+    private final Logger logger = ServerLogger.getInstance();
+    private final Lane[] lanes = new Lane[RequestLane.values().length];
+    private final boolean strict;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Конструктор полос.
+     *
+     * @param threads число рабочих потоков, от которого считаются бюджеты полос
+     */
+    public PriorityLanes(int threads) {
+        this.strict = "strict".equals(ServerConfig.LANE_SCHEDULING);
+        for (RequestLane lane : RequestLane.values()) {
+            lanes[lane.ordinal()] = new Lane(lane, budgetOf(lane, threads));
+        }
+    }
+
+    /**
+     * Ставит задачу в очередь полосы и выполняет в вызывающем потоке готовые задачи полос.
+     *
+     * @param lane полоса
+     * @param task задача
+     * @return false, если очередь полосы заполнена
+     */
+    public boolean execute(RequestLane lane, Runnable task) {
+        Lane target = lanes[lane.ordinal()];
+        Task own = new Task(task, System.nanoTime());
+        lock.lock();
+        try {
+            if (target.queue.isEmpty() && target.busy < target.budget) {
+                // Очередь полосы пуста и бюджет есть: задача выполняется сразу, без очереди
+                target.busy++;
+            } else if (target.queue.size() >= ServerConfig.WORK_QUEUE_SIZE) {
+                target.metrics.recordRejected();
+                return false;
+            } else {
+                target.queue.add(own);
+                own = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (own != null) {
+            run(target, own);
+        } else {
+            drain();
+        }
+        return true;
+    }
+
+    private static int budgetOf(RequestLane lane, int threads) {
+        switch (lane) {
+            case BULK:
+                return Math.min(ServerConfig.BULK_WORKERS, Math.max(1, threads - 1));
+            case ADMIN:
+                return Math.min(ServerConfig.ADMIN_WORKERS, threads);
+            default:
+                return threads;
+        }
+    }
+
+    /**
+     * Выполняет задачу, уже учтённую в бюджете полосы, а затем готовые задачи из очередей.
+     */
+    private void run(Lane lane, Task task) {
+        while (true) {
+            long startedAt = System.nanoTime();
+            try {
+                task.runnable.run();
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Ошибка в полосе «" + lane.lane.getTitle() + "»: " + e);
+            }
+            lane.metrics.record(startedAt - task.enqueuedAt, System.nanoTime() - startedAt);
+            lock.lock();
+            try {
+                lane.busy--;
+                // Освободилось место в бюджете полосы: её очередь могла ждать именно этого
+                if ((lane = next()) == null) {
+                    return;
+                }
+                task = lane.queue.poll();
+                lane.busy++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Выполняет готовые задачи полос, пока они есть.
+     */
+    private void drain() {
+        Lane lane;
+        Task task;
+        lock.lock();
+        try {
+            if ((lane = next()) == null) {
+                return;
+            }
+            task = lane.queue.poll();
+            lane.busy++;
+        } finally {
+            lock.unlock();
+        }
+        run(lane, task);
+    }
+
+    /**
+     * Выбирает полосу среди полос с задачами и свободным бюджетом. Вызывается под блокировкой.
+     */
+    private Lane next() {
+        if (strict) {
+            for (Lane lane : lanes) {
+                if (lane.isReady()) {
+                    return lane;
+                }
+            }
+            return null;
+        }
+        Lane chosen = null;
+        int totalWeight = 0;
+        for (Lane lane : lanes) {
+            if (lane.isReady()) {
+                lane.current += lane.lane.getWeight();
+                totalWeight += lane.lane.getWeight();
+                if (chosen == null || lane.current > chosen.current) {
+                    chosen = lane;
+                }
+            }
+        }
+        if (chosen != null) {
+            chosen.current -= totalWeight;
+        }
+        return chosen;
+    }
+
+    /**
+     * Очередь и состояние одной полосы; изменяется только под блокировкой.
+     */
+    private static final class Lane {
+        private final RequestLane lane;
+        private final int budget;
+        private final ArrayDeque<Task> queue = new ArrayDeque<>();
+        private final ServerMetrics.StageMetrics metrics;
+        private int busy;
+        // Накопленный вес для взвешенного выбора
+        private int current;
+
+        private Lane(RequestLane lane, int budget) {
+            this.lane = lane;
+            this.budget = budget;
+            this.metrics = ServerMetrics.getInstance().stage("полоса " + lane.getTitle());
+        }
+
+        private boolean isReady() {
+            return !queue.isEmpty() && busy < budget;
+        }
+    }
+
+    private static final class Task {
+        private final Runnable runnable;
+        private final long enqueuedAt;
+
+        private Task(Runnable runnable, long enqueuedAt) {
+            this.runnable = runnable;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
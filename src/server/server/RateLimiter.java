@@ -0,0 +1,157 @@
+package server.server;
+
+import server.utils.ServerLogger;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ограничение частоты датаграмм от каждого клиента по схеме «корзины токенов».
+ * <p>
+ * Каждому отправителю соответствует корзина ёмкостью {@code burst} токенов, которая
+ * пополняется со скоростью {@code rate} токенов в секунду. Датаграмма забирает один токен;
+ * если корзина пуста, датаграмма отбрасывается ещё до разбора. Ёмкость корзины должна вмещать
+ * все фрагменты самого большого запроса, иначе такой запрос не дойдёт целиком.
+ * </p>
+ * <p>
+ * Отправитель определяется IP-адресом без порта, а для IPv6 - префиксом /64, который обычно
+ * целиком принадлежит одному узлу: иначе смена порта или адреса внутри префикса давала бы
+ * новую полную корзину.
+ * </p>
+ * <p>
+ * Ограничитель принадлежит одному шарду и вызывается только из его потока ввода-вывода,
+ * поэтому синхронизация не нужна. Корзины хранятся в порядке обращения; когда их
+ * {@link #MAX_SOURCES}, место нового отправителя может занять только давно молчавший,
+ * иначе датаграммы нового отправителя отбрасываются.
+ * </p>
+ */
+public class RateLimiter {
+    private static final int MAX_SOURCES = 16384;
+    private static final long LOG_INTERVAL = 1_000_000_000L;
+
+    private final Logger logger = ServerLogger.getInstance();
+    private final double rate;
+    private final double burst;
+    // Порядок обращения: самая давно молчащая корзина всегда первая
+    private final LinkedHashMap<Long, Bucket> buckets = new LinkedHashMap<>(16, 0.75f, true);
+    private long refusedLoggedAt = -LOG_INTERVAL;
+    private long refused;
+
+    /**
+     * Конструктор ограничителя.
+     *
+     * @param rate  допустимое число датаграмм в секунду от одного клиента; 0 отключает ограничение
+     * @param burst наибольшее число датаграмм, которое клиент может прислать подряд
+     */
+    public RateLimiter(double rate, double burst) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * Забирает токен из корзины отправителя.
+     *
+     * @param source адрес отправителя
+     * @param now    текущее время (нс, {@link System#nanoTime()})
+     * @return true, если датаграмму можно принять
+     */
+    public boolean tryAcquire(InetSocketAddress source, long now) {
+        if (rate <= 0) {
+            return true;
+        }
+        long key = keyOf(source.getAddress());
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_SOURCES && !evictIdle(now)) {
+                refuse(now);
+                return false;
+            }
+            bucket = new Bucket(burst, now);
+            buckets.put(key, bucket);
+        } else {
+            bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.updatedAt) * rate / 1e9);
+            bucket.updatedAt = now;
+        }
+        if (bucket.tokens >= 1) {
+            bucket.tokens--;
+            return true;
+        }
+        bucket.dropped++;
+        // В лог попадает не каждая отброшенная датаграмма, а не чаще раза в секунду итог по клиенту
+        if (now - bucket.loggedAt >= LOG_INTERVAL) {
+            logger.log(Level.WARNING, "Клиент " + source + " превысил допустимую частоту запросов, отброшено датаграмм: " + bucket.dropped);
+            bucket.loggedAt = now;
+            bucket.dropped = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Удаляет самую давно молчащую корзину, если за время молчания она успела наполниться:
+     * такой клиент при следующем обращении получит полную корзину и без сохранённого состояния.
+     *
+     * @return true, если место освободилось
+     */
+    private boolean evictIdle(long now) {
+        Iterator<Bucket> eldest = buckets.values().iterator();
+        Bucket bucket = eldest.next();
+        if (bucket.tokens + (now - bucket.updatedAt) * rate / 1e9 < burst) {
+            return false;
+        }
+        eldest.remove();
+        return true;
+    }
+
+    private void refuse(long now) {
+        refused++;
+        if (now - refusedLoggedAt >= LOG_INTERVAL) {
+            logger.log(Level.WARNING, "Слишком много активных отправителей, отброшено датаграмм новых отправителей: " + refused);
+            refusedLoggedAt = now;
+            refused = 0;
+        }
+    }
+
+    /**
+     * Ключ корзины: адрес IPv4 или префикс /64 адреса IPv6. Адрес IPv4, отображённый в IPv6,
+     * считается адресом IPv4.
+     */
+    private static long keyOf(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        int offset = 0;
+        if (bytes.length == 16) {
+            if (!isMappedIPv4(bytes)) {
+                return ByteBuffer.wrap(bytes).getLong();
+            }
+            offset = 12;
+        }
+        // У ключей IPv4 старшие 32 бита - метка, которая не встречается в начале адресов IPv6
+        return 0xFFFF_FFFF_0000_0000L | (ByteBuffer.wrap(bytes, offset, 4).getInt() & 0xFFFF_FFFFL);
+    }
+
+    private static boolean isMappedIPv4(byte[] bytes) {
+        for (int i = 0; i < 10; i++) {
+            if (bytes[i] != 0) {
+                return false;
+            }
+        }
+        return bytes[10] == (byte) 0xFF && bytes[11] == (byte) 0xFF;
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long updatedAt;
+        private long loggedAt;
+        private long dropped;
+
+        private Bucket(double tokens, long updatedAt) {
+            this.tokens = tokens;
+            this.updatedAt = updatedAt;
+            this.loggedAt = updatedAt - LOG_INTERVAL;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package server.server;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/**
+ * Кэш ответов на запросы, пришедшие датаграммами, для обработки повторов.
+ * <p>
+ * Клиент повторяет запрос, если ответ задержался или потерялся, поэтому один и тот же запрос
+ * может прийти несколько раз. Запрос определяется адресом клиента и идентификатором запроса.
+ * Пока первый экземпляр выполняется, повторы отбрасываются; после выполнения повтор получает
+ * сохранённый закодированный ответ, и команда второй раз не выполняется.
+ * </p>
+ * <p>
+ * Размер кэша ограничен и числом записей, и суммарным размером сохранённых ответов:
+ * при переполнении вытесняются самые старые записи. Ответ больше всего бюджета не сохраняется,
+ * и повтор такого запроса выполняется заново.
+ * Записи живут ограниченное время: клиент повторяет запрос лишь в пределах своего тайм-аута,
+ * а после перезапуска клиента идентификаторы с того же адреса начинаются заново.
+ * </p>
+ */
+public class ReplyCache {
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long timeToLive;
+    // Суммарный размер сохранённых ответов
+    private long bytes;
+    // Записи в порядке добавления, поэтому устаревшие всегда в начале
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Конструктор кэша.
+     *
+     * @param maxEntries наибольшее число записей
+     * @param maxBytes   наибольший суммарный размер сохранённых ответов, байт
+     * @param timeToLive время жизни записи (мс)
+     */
+    public ReplyCache(int maxEntries, long maxBytes, long timeToLive) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Отмечает начало выполнения запроса.
+     *
+     * @param clientAddress адрес клиента
+     * @param requestId     идентификатор запроса
+     * @param now           текущее время (мс)
+     * @return null, если запрос пришёл впервые и его нужно выполнить; иначе запись о нём
+     */
+    public synchronized Entry begin(InetSocketAddress clientAddress, long requestId, long now) {
+        evictExpired(now);
+        Key key = new Key(clientAddress, requestId);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        if (entries.size() >= maxEntries) {
+            removeEldest();
+        }
+        entries.put(key, new Entry(now));
+        return null;
+    }
+
+    /**
+     * Сохраняет закодированный ответ на выполненный запрос.
+     *
+     * @param clientAddress адрес клиента
+     * @param requestId     идентификатор запроса
+     * @param reply         закодированный ответ
+     */
+    public synchronized void complete(InetSocketAddress clientAddress, long requestId, byte[] reply) {
+        Key key = new Key(clientAddress, requestId);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        if (reply.length > maxBytes) {
+            entries.remove(key);
+            return;
+        }
+        entry.reply = reply;
+        bytes += reply.length;
+        while (bytes > maxBytes) {
+            removeEldest();
+        }
+    }
+
+    private void evictExpired(long now) {
+        while (!entries.isEmpty() && now - entries.values().iterator().next().createdAt > timeToLive) {
+            removeEldest();
+        }
+    }
+
+    private void removeEldest() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        byte[] reply = eldest.next().reply;
+        if (reply != null) {
+            bytes -= reply.length;
+        }
+        eldest.remove();
+    }
+
+    /**
+     * Запись о запросе.
+     */
+    public static final class Entry {
+        private final long createdAt;
+        private volatile byte[] reply;
+
+        private Entry(long createdAt) {
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * @return закодированный ответ или null, если запрос ещё выполняется
+         */
+        public byte[] getReply() {
+            return reply;
+        }
+    }
+
+    private static final class Key {
+        private final InetSocketAddress clientAddress;
+        private final long requestId;
+
+        private Key(InetSocketAddress clientAddress, long requestId) {
+            this.clientAddress = clientAddress;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return requestId == key.requestId && clientAddress.equals(key.clientAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clientAddress, requestId);
+        }
+    }
+}
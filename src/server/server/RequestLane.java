@@ -0,0 +1,69 @@
+package server.server;
+
+import server.utils.ServerConfig;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Класс запроса, определяющий полосу, в которой он выполняется.
+ * <p>
+ * Массовые команды ({@link ServerConfig#BULK_COMMANDS}) передают всю коллекцию и могут
+ * выполняться долго, служебные ({@link ServerConfig#ADMIN_COMMANDS}) редки, но важны,
+ * все остальные считаются интерактивными. Полосы перечислены в порядке строгого приоритета.
+ * </p>
+ */
+public enum RequestLane {
+    ADMIN("служебные", 4),
+    INTERACTIVE("интерактивные", 8),
+    BULK("массовые", 1);
+
+    private static final Set<String> BULK_COMMANDS = parse(ServerConfig.BULK_COMMANDS);
+    private static final Set<String> ADMIN_COMMANDS = parse(ServerConfig.ADMIN_COMMANDS);
+
+    private final String title;
+    private final int weight;
+
+    RequestLane(String title, int weight) {
+        this.title = title;
+        this.weight = weight;
+    }
+
+    /**
+     * Определяет полосу запроса по имени команды.
+     *
+     * @param command имя команды
+     * @return полоса запроса
+     */
+    public static RequestLane of(String command) {
+        if (ADMIN_COMMANDS.contains(command)) {
+            return ADMIN;
+        }
+        if (BULK_COMMANDS.contains(command)) {
+            return BULK;
+        }
+        return INTERACTIVE;
+    }
+
+    /**
+     * @return название полосы для лога и статистики
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return доля полосы при взвешенном распределении рабочих потоков
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    private static Set<String> parse(String commands) {
+        return Arrays.stream(commands.split(","))
+                .map(String::trim)
+                .filter(command -> !command.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+}
@@ -0,0 +1,181 @@
+package server.server;
+
+import common.serverUtils.Request;
+import server.utils.ServerLogger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Кольцевой буфер запросов между потоком ввода-вывода и рабочими потоками (по образцу Disruptor).
+ * <p>
+ * Ячейки выделяются один раз и переиспользуются, передача запроса не создаёт объектов и не берёт
+ * блокировок: позиции в кольце упорядочены порядковыми номерами. Единственный писатель (поток
+ * ввода-вывода) записывает запрос в ячейку и публикует её номер. Рабочие потоки захватывают
+ * следующий номер сравнением с обменом и отмечают свой прогресс; писатель не заходит на ячейку,
+ * пока её не обработал самый отстающий рабочий поток.
+ * </p>
+ * <p>
+ * Если кольцо заполнено, запрос не ставится ({@link #offer} возвращает false), и сервер
+ * отвечает клиенту, что перегружен. Свободный рабочий поток сначала недолго крутится в ожидании,
+ * затем засыпает до публикации следующего запроса.
+ * </p>
+ */
+public class RequestRing {
+    // На одном процессоре активное ожидание только отнимает время у писателя
+    private static final int SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+
+    private final Logger logger = ServerLogger.getInstance();
+    private final String name;
+    private final AtomicReferenceArray<Request> slots;
+    private final int mask;
+    // Последний опубликованный номер
+    private final AtomicLong cursor = new AtomicLong(-1);
+    // Последний захваченный рабочими потоками номер
+    private final AtomicLong workSequence = new AtomicLong(-1);
+    private final Worker[] workers;
+    // Наименьший номер, до которого все ячейки освобождены; обновляется только писателем
+    private long cachedGating = -1;
+    private volatile boolean running = true;
+
+    /**
+     * Конструктор кольца.
+     *
+     * @param name     название для имён рабочих потоков
+     * @param capacity число ячеек (округляется вверх до степени двойки)
+     * @param threads  число рабочих потоков
+     */
+    public RequestRing(String name, int capacity, int threads) {
+        this.name = name;
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.workers = new Worker[threads];
+    }
+
+    /**
+     * Запускает рабочие потоки.
+     *
+     * @param handler обработчик запроса; вызывается в рабочем потоке
+     */
+    public void start(Consumer<Request> handler) {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(handler);
+            workers[i].thread = new Thread(workers[i], "Рабочий поток " + name + "-" + (i + 1));
+            workers[i].thread.setDaemon(true);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * Публикует запрос. Вызывается только потоком ввода-вывода.
+     *
+     * @param request запрос
+     * @return false, если все ячейки заняты необработанными запросами
+     */
+    public boolean offer(Request request) {
+        long next = cursor.get() + 1;
+        long wrapPoint = next - slots.length();
+        if (wrapPoint > cachedGating) {
+            cachedGating = gatingSequence();
+            if (wrapPoint > cachedGating) {
+                return false;
+            }
+        }
+        slots.lazySet((int) next & mask, request);
+        cursor.set(next);
+        // Будится только поток, захвативший именно этот номер
+        for (Worker worker : workers) {
+            if (worker.parked && worker.waitingFor <= next) {
+                LockSupport.unpark(worker.thread);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Останавливает рабочие потоки после обработки уже захваченных запросов.
+     */
+    public void shutdown() {
+        running = false;
+        for (Worker worker : workers) {
+            if (worker != null) {
+                LockSupport.unpark(worker.thread);
+            }
+        }
+    }
+
+    private long gatingSequence() {
+        long minimum = workSequence.get();
+        for (Worker worker : workers) {
+            if (worker != null) {
+                minimum = Math.min(minimum, worker.sequence.get());
+            }
+        }
+        return minimum;
+    }
+
+    private final class Worker implements Runnable {
+        private final Consumer<Request> handler;
+        // Все запросы до этого номера включительно этим потоком обработаны
+        private final AtomicLong sequence = new AtomicLong(-1);
+        private volatile boolean parked;
+        private volatile long waitingFor;
+        private Thread thread;
+
+        private Worker(Consumer<Request> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long next;
+                do {
+                    long current = workSequence.get();
+                    next = current + 1;
+                    sequence.set(current);
+                } while (!workSequence.compareAndSet(next - 1, next));
+                if (!awaitPublished(next)) {
+                    return;
+                }
+                int index = (int) next & mask;
+                Request request = slots.get(index);
+                slots.lazySet(index, null);
+                try {
+                    handler.accept(request);
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, "Ошибка при обработке запроса: " + e);
+                }
+            }
+        }
+
+        private boolean awaitPublished(long next) {
+            int spins = 0;
+            while (cursor.get() < next) {
+                if (!running) {
+                    return false;
+                }
+                if (spins < SPIN_LIMIT) {
+                    spins++;
+                    Thread.onSpinWait();
+                    continue;
+                }
+                waitingFor = next;
+                parked = true;
+                // Повторная проверка после объявления о засыпании: иначе можно пропустить публикацию
+                if (cursor.get() < next && running) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+            return true;
+        }
+    }
+}
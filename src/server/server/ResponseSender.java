@@ -0,0 +1,263 @@
+package server.server;
+
+import common.serverUtils.Acknowledgement;
+import common.serverUtils.BufferPool;
+import common.serverUtils.Fragment;
+import common.serverUtils.WindowedSender;
+import server.utils.ServerConfig;
+import server.utils.ServerLogger;
+import server.utils.ServerMetrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Единственный поток отправки ответов сервера.
+ * <p>
+ * Забирает из очереди сразу все накопившиеся ответы и подтверждения. Однофрагментные ответы
+ * одному и тому же клиенту упаковываются друг за другом в одну датаграмму (кадры протокола
+ * содержат собственную длину, поэтому получатель разбирает их по очереди), после чего
+ * датаграммы отправляются подряд. Многофрагментные ответы ведутся этим же потоком через
+ * {@link WindowedSender}, так что число потоков отправки не зависит от нагрузки.
+ * </p>
+ * <p>
+ * Очередь ограничена ({@link ServerConfig#SEND_QUEUE_SIZE}) и никогда не блокирует ставящий
+ * поток: ответы ставят и потоки ввода-вывода (повторы из кэша, ответы о перегрузке), а их
+ * остановка остановила бы приём подтверждений. Не поместившийся ответ отбрасывается и
+ * учитывается как отклонённый при перегрузке; клиент повторит запрос и получит ответ из кэша
+ * ответов. Потерянное подтверждение перекрывается следующим.
+ * </p>
+ */
+public class ResponseSender implements Runnable {
+    private static final int MAX_DRAIN = 256;
+    private static final long IDLE_WAIT = 1000;
+
+    private final Logger logger = ServerLogger.getInstance();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+    private final BufferPool bufferPool = BufferPool.getInstance();
+    private final ServerMetrics.StageMetrics stageMetrics = metrics.stage("отправка");
+    private final Server server;
+    // Ответы и подтверждения от потоков приёма; обрабатываются только потоком отправки
+    private final ArrayBlockingQueue<Object> inbox = new ArrayBlockingQueue<>(ServerConfig.SEND_QUEUE_SIZE);
+    private final List<Object> drained = new ArrayList<>();
+    private final Map<Long, Transfer> transfers = new HashMap<>();
+    // Адресаты идущих передач по их идентификатору; по ним потоки приёма отсеивают чужие подтверждения
+    private final ConcurrentHashMap<Long, InetSocketAddress> transferTargets = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, Datagram> coalesced = new LinkedHashMap<>();
+    private volatile boolean running = true;
+
+    ResponseSender(Server server) {
+        this.server = server;
+    }
+
+    /**
+     * Ставит закодированный ответ в очередь на отправку.
+     *
+     * @param clientAddress адрес клиента
+     * @param reply         закодированный ответ
+     */
+    public void submit(InetSocketAddress clientAddress, byte[] reply) {
+        if (!inbox.offer(new EncodedReply(clientAddress, reply, System.nanoTime()))) {
+            stageMetrics.recordRejected();
+            metrics.recordRejectedRequests(1);
+            logger.log(Level.WARNING, "Очередь отправки переполнена, ответ на " + clientAddress + " отброшен");
+        }
+    }
+
+    /**
+     * Передаёт подтверждение от клиента многофрагментной передаче. Подтверждение, не относящееся
+     * к идущей передаче этому же адресату, отбрасывается сразу.
+     *
+     * @param acknowledgement принятое подтверждение
+     * @param source          адрес отправителя подтверждения
+     */
+    public void deliverAcknowledgement(Acknowledgement acknowledgement, InetSocketAddress source) {
+        if (!source.equals(transferTargets.get(acknowledgement.getTransferId()))) {
+            return;
+        }
+        if (!inbox.offer(acknowledgement)) {
+            stageMetrics.recordRejected();
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        // При заполненной очереди поток отправки и так проснётся через IDLE_WAIT
+        inbox.offer(Boolean.FALSE);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Object first = inbox.poll(waitTime(), TimeUnit.MILLISECONDS);
+                long now = System.currentTimeMillis();
+                if (first != null) {
+                    drained.add(first);
+                    inbox.drainTo(drained, MAX_DRAIN);
+                    for (Object item : drained) {
+                        if (item instanceof EncodedReply) {
+                            EncodedReply reply = (EncodedReply) item;
+                            long startedAt = System.nanoTime();
+                            enqueue(reply.clientAddress, reply.reply);
+                            stageMetrics.record(startedAt - reply.enqueuedAt, System.nanoTime() - startedAt);
+                        } else if (item instanceof Acknowledgement) {
+                            Transfer transfer = transfers.get(((Acknowledgement) item).getTransferId());
+                            if (transfer != null) {
+                                transfer.sender.onAcknowledgement((Acknowledgement) item, now);
+                            }
+                        }
+                    }
+                    drained.clear();
+                    flushCoalesced();
+                }
+                pumpTransfers(System.currentTimeMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Ошибка в потоке отправки ответов: " + e);
+            }
+        }
+    }
+
+    private long waitTime() {
+        long now = System.currentTimeMillis();
+        long deadline = now + IDLE_WAIT;
+        for (Transfer transfer : transfers.values()) {
+            deadline = Math.min(deadline, transfer.sender.nextDeadline());
+        }
+        return Math.max(1, deadline - now);
+    }
+
+    /**
+     * Ставит закодированный ответ на отправку: однофрагментный добавляется в датаграмму клиента,
+     * многофрагментный начинает надёжную передачу.
+     */
+    private void enqueue(InetSocketAddress clientAddress, byte[] reply) throws IOException {
+        List<Fragment> fragments = Fragment.split(reply, ThreadLocalRandom.current().nextLong());
+        if (fragments.size() > 1) {
+            DatagramChannel channel = server.channelFor(clientAddress);
+            WindowedSender sender = new WindowedSender(fragments, datagram -> channel.send(datagram, clientAddress));
+            transfers.put(sender.getTransferId(), new Transfer(sender, clientAddress));
+            transferTargets.put(sender.getTransferId(), clientAddress);
+            return;
+        }
+        Fragment fragment = fragments.get(0);
+        Datagram datagram = coalesced.get(clientAddress);
+        if (datagram != null && datagram.buffer.remaining() < Fragment.HEADER_SIZE + fragment.getLength()) {
+            send(clientAddress, datagram);
+            coalesced.remove(clientAddress);
+            datagram = null;
+        }
+        if (datagram == null) {
+            datagram = new Datagram(bufferPool.acquire());
+            datagram.buffer.limit(Fragment.MAX_DATAGRAM_SIZE);
+            coalesced.put(clientAddress, datagram);
+        }
+        fragment.writeTo(datagram.buffer);
+        datagram.responses++;
+    }
+
+    /**
+     * Отправляет подряд все накопленные датаграммы с однофрагментными ответами.
+     */
+    private void flushCoalesced() {
+        for (Map.Entry<InetSocketAddress, Datagram> entry : coalesced.entrySet()) {
+            send(entry.getKey(), entry.getValue());
+        }
+        coalesced.clear();
+    }
+
+    private void send(InetSocketAddress clientAddress, Datagram datagram) {
+        try {
+            datagram.buffer.flip();
+            server.channelFor(clientAddress).send(datagram.buffer, clientAddress);
+            metrics.recordResponseDatagram(datagram.responses);
+            logger.log(Level.INFO, "Отправлен ответ на " + clientAddress + " (ответов в датаграмме: " + datagram.responses + ")");
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "IO ошибка во время ответа по адресу " + clientAddress);
+        } finally {
+            bufferPool.release(datagram.buffer);
+        }
+    }
+
+    private void pumpTransfers(long now) {
+        Iterator<Transfer> iterator = transfers.values().iterator();
+        while (iterator.hasNext()) {
+            Transfer transfer = iterator.next();
+            boolean finished = true;
+            try {
+                if (transfer.sender.isComplete()) {
+                    metrics.recordResponseDatagram(1);
+                    logger.log(Level.INFO, "Отправлен ответ на " + transfer.clientAddress);
+                } else if (transfer.sender.hasFailed(now)) {
+                    logger.log(Level.WARNING, "Клиент " + transfer.clientAddress + " перестал подтверждать приём ответа");
+                } else {
+                    transfer.sender.pump(now);
+                    finished = false;
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "IO ошибка во время ответа по адресу " + transfer.clientAddress);
+            }
+            if (finished) {
+                iterator.remove();
+                transferTargets.remove(transfer.sender.getTransferId());
+            }
+        }
+    }
+
+    /**
+     * Датаграмма, в которую упаковываются ответы одному клиенту.
+     */
+    private static final class Datagram {
+        private final ByteBuffer buffer;
+        private int responses = 0;
+
+        private Datagram(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Закодированный ответ, ожидающий отправки.
+     */
+    private static final class EncodedReply {
+        private final InetSocketAddress clientAddress;
+        private final byte[] reply;
+        private final long enqueuedAt;
+
+        private EncodedReply(InetSocketAddress clientAddress, byte[] reply, long enqueuedAt) {
+            this.clientAddress = clientAddress;
+            this.reply = reply;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * Многофрагментная передача, ведущаяся потоком отправки.
+     */
+    private static final class Transfer {
+        private final WindowedSender sender;
+        private final InetSocketAddress clientAddress;
+
+        private Transfer(WindowedSender sender, InetSocketAddress clientAddress) {
+            this.sender = sender;
+            this.clientAddress = clientAddress;
+        }
+    }
+}
@@ -1,111 +1,186 @@
 package server.server;
 
+import server.utils.ServerConfig;
 import server.utils.ServerLogger;
 
 import java.io.IOException;
 import java.net.BindException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
 import java.nio.channels.DatagramChannel;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static common.serverUtils.Serializer.deserialize;
-import static common.serverUtils.Serializer.serialize;
-import common.serverUtils.Request;
+import common.serverUtils.Acknowledgement;
 import common.serverUtils.Response;
 
+import static common.serverUtils.Serializer.serialize;
+
 
 public class Server {
     private final Logger logger = ServerLogger.getInstance();
     private final int port;
-    private final int bufferSize = 2048;
-    private DatagramChannel channel;
-    private final ExecutorService responseCashedPoll = Executors.newCachedThreadPool();
-    private final ExecutorService readCashedPoll = Executors.newCachedThreadPool();
-    private final Lock serverLock = new ReentrantLock();
+    private final List<Shard> shards = new ArrayList<>();
+    private final List<StreamTransport> streamTransports = new ArrayList<>();
+    private final ResponseSender responseSender = new ResponseSender(this);
+    private final ReplyCache replyCache = new ReplyCache(ServerConfig.REPLY_CACHE_SIZE,
+            ServerConfig.REPLY_CACHE_BYTES, ServerConfig.REPLY_CACHE_TTL);
+    // Кодирование ответов вынесено из рабочих потоков и потока отправки в отдельную стадию
+    private final Stage<Response> encoder = new Stage<>("кодирование", ServerConfig.ENCODE_THREADS,
+            ServerConfig.ENCODE_QUEUE_SIZE, this::encodeAndSend);
+    private SharedMemoryEndpoint sharedMemoryEndpoint;
 
     public Server(int port) {
         this.port = port;
     }
 
     public void startServer() throws IOException {
-        channel = DatagramChannel.open();
-        channel.configureBlocking(false);
+        int shardCount = ServerConfig.SHARDS;
+        if (shardCount > 1) {
+            try (DatagramChannel probe = DatagramChannel.open()) {
+                if (!probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    logger.log(Level.WARNING, "SO_REUSEPORT не поддерживается, сервер работает с одним сокетом");
+                    shardCount = 1;
+                }
+            }
+        }
         try {
-            channel.bind(new InetSocketAddress(this.port));
+            for (int i = 0; i < shardCount; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                if (shardCount > 1) {
+                    // Ядро распределяет клиентов между сокетами одного порта по хэшу их адреса
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channel.bind(new InetSocketAddress(this.port));
+                shards.add(new Shard(this, i, channel));
+            }
+            if (ServerConfig.STREAM) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channel.bind(new InetSocketAddress(this.port));
+                streamTransports.add(new StreamTransport("TCP", channel));
+            }
         } catch (BindException e) {
             logger.log(Level.SEVERE, "Порт занят");
             System.exit(1);
         }
-        logger.log(Level.INFO, "Открыт порт " + this.port);
-//        while (true){
-//            this.receiveRequest();
-//        }
+        logger.log(Level.INFO, "Открыт порт " + this.port + ", сокетов: " + shardCount
+                + (ServerConfig.STREAM ? ", приём TCP-соединений включён" : ""));
+        if (!ServerConfig.SOCKET_PATH.isEmpty()) {
+            openUnixSocket(Path.of(ServerConfig.SOCKET_PATH));
+        }
+        if (!ServerConfig.SHARED_MEMORY_PATH.isEmpty()) {
+            sharedMemoryEndpoint = new SharedMemoryEndpoint(Path.of(ServerConfig.SHARED_MEMORY_PATH), ServerConfig.SHARED_MEMORY_SIZE);
+            logger.log(Level.INFO, "Открыт транспорт через разделяемую память " + ServerConfig.SHARED_MEMORY_PATH);
+        }
+        Thread senderThread = new Thread(responseSender, "Поток отправки ответов");
+        senderThread.setDaemon(true);
+        senderThread.start();
     }
 
-    public Request receiveRequest() {
+    /**
+     * Открывает Unix-сокет для клиентов на той же машине. Сервер работает и без него,
+     * поэтому ошибка открытия только записывается в лог.
+     */
+    private void openUnixSocket(Path path) {
         try {
-            ByteBuffer byteBuffer = ByteBuffer.allocate(bufferSize);
-            byteBuffer.clear();
-
-            serverLock.lock();
-            InetSocketAddress inetSocketAddress;
-            try {
-                inetSocketAddress = (InetSocketAddress) channel.receive(byteBuffer);
-            } finally {
-                serverLock.unlock();
-            }
-
-            byteBuffer.flip();
-            Object object = deserialize(byteBuffer.array());
-            Request request;
-            if (object instanceof Request) {
-                request = (Request) object;
-            } else {
-                return new Request("", "");
-            }
-            byteBuffer.clear();
-            request.setClientAddress(inetSocketAddress);
-            logger.log(Level.INFO, "Получен запрос" + inetSocketAddress.toString());
-            return request;
-        } catch (IOException | ClassNotFoundException e) {
-            return null;
+            // Файл сокета мог остаться от предыдущего запуска, иначе bind завершится ошибкой
+            Files.deleteIfExists(path);
+            ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.bind(UnixDomainSocketAddress.of(path));
+            path.toFile().deleteOnExit();
+            streamTransports.add(new StreamTransport("UNIX", channel));
+            logger.log(Level.INFO, "Открыт Unix-сокет " + path);
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.log(Level.WARNING, "Не удалось открыть Unix-сокет " + path + ": " + e.getMessage());
         }
     }
 
+    /**
+     * Передаёт подтверждение, принятое любым из шардов, отправке соответствующего ответа.
+     *
+     * @param acknowledgement принятое подтверждение
+     * @param source          адрес отправителя подтверждения
+     */
+    void deliverAcknowledgement(Acknowledgement acknowledgement, InetSocketAddress source) {
+        responseSender.deliverAcknowledgement(acknowledgement, source);
+    }
+
     public void sendResponse(Response response) {
         if (response == null) {
             return;
         }
-        responseCashedPoll.submit(() -> {
-                    try {
-                        ByteBuffer byteBuffer = ByteBuffer.allocate(bufferSize);
-                        byteBuffer.clear();
-                        byteBuffer = ByteBuffer.wrap(serialize(response));
-                        channel.send(byteBuffer, response.getClientAddress());
-                        byteBuffer.clear();
-                        logger.log(Level.INFO, "Отправлен ответ на "+response.getClientAddress().toString());
-                    } catch (IOException e) {
-                        logger.log(Level.SEVERE, "IO ошибка во время ответа по адресу "+response.getClientAddress().toString());
-                    }
-                }
-        );
+        if (!encoder.offer(response)) {
+            // Ответ уже готов, и отбрасывать его нельзя: кодируем в вызывающем потоке
+            encoder.runHere(response);
+        }
+    }
+
+    /**
+     * Кодирует ответ в вызывающем потоке и передаёт на отправку. Используется для объёмных
+     * ответов массовых команд, чтобы их кодирование не занимало потоки стадии кодирования.
+     *
+     * @param response ответ
+     */
+    public void sendResponseNow(Response response) {
+        encoder.runHere(response);
+    }
+
+    /**
+     * Кодирует ответ и передаёт его на отправку по каналу, через который пришёл запрос.
+     */
+    private void encodeAndSend(Response response) {
+        byte[] reply = serialize(response);
+        if (response.getReplyChannel() != null) {
+            response.getReplyChannel().reply(reply);
+            return;
+        }
+        if (response.getRequestId() != 0) {
+            replyCache.complete(response.getClientAddress(), response.getRequestId(), reply);
+        }
+        responseSender.submit(response.getClientAddress(), reply);
+    }
+
+    public void shutdown() {
+        encoder.shutdown();
+        responseSender.shutdown();
+    }
+
+    /**
+     * Выбирает сокет для отправки клиенту. Все сокеты открыты на одном порту,
+     * поэтому для клиента ответ с любого из них выглядит одинаково.
+     */
+    DatagramChannel channelFor(InetSocketAddress clientAddress) {
+        return shards.get(Math.floorMod(clientAddress.hashCode(), shards.size())).getChannel();
+    }
+
+    public List<Shard> getShards() {
+        return this.shards;
+    }
+
+    public List<StreamTransport> getStreamTransports() {
+        return this.streamTransports;
     }
 
-    public DatagramChannel getChannel() {
-        return this.channel;
+    /**
+     * @return транспорт через разделяемую память или null, если он отключён
+     */
+    public SharedMemoryEndpoint getSharedMemoryEndpoint() {
+        return this.sharedMemoryEndpoint;
     }
 
-    public ExecutorService getResponseCashedPoll() {
-        return this.responseCashedPoll;
+    public ReplyCache getReplyCache() {
+        return this.replyCache;
     }
 
-    public ExecutorService getReadCashedPoll() {
-        return this.readCashedPoll;
+    public ResponseSender getResponseSender() {
+        return this.responseSender;
     }
 }
\ No newline at end of file
@@ -0,0 +1,202 @@
+package server.server;
+
+import common.serverUtils.Acknowledgement;
+import common.serverUtils.BufferPool;
+import common.serverUtils.Fragment;
+import common.serverUtils.FragmentAssembler;
+import common.serverUtils.Request;
+import common.serverUtils.RequestView;
+import common.serverUtils.Response;
+import server.utils.ServerConfig;
+import server.utils.ServerLogger;
+import server.utils.ServerMetrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Один из сокетов сервера, открытых на общем порту.
+ * Каждый шард обслуживается собственным потоком ввода-вывода (селектором), имеет свой сборщик
+ * фрагментов и свой набор рабочих потоков, поэтому шарды не разделяют состояние приёма.
+ */
+public class Shard {
+    private final Logger logger = ServerLogger.getInstance();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+    private final BufferPool bufferPool = BufferPool.getInstance();
+    private final Server server;
+    private final int index;
+    private final DatagramChannel channel;
+    private final FragmentAssembler assembler = new FragmentAssembler();
+    private final RequestRing ring;
+    // Собранные, но ещё не десериализованные сообщения текущей пачки (только для потока ввода-вывода)
+    private final List<byte[]> pendingMessages = new ArrayList<>();
+    private final List<InetSocketAddress> pendingSources = new ArrayList<>();
+    private final RequestView view = new RequestView();
+    private final RateLimiter rateLimiter = new RateLimiter(ServerConfig.RATE_LIMIT, ServerConfig.RATE_BURST);
+
+    Shard(Server server, int index, DatagramChannel channel) {
+        this.server = server;
+        this.index = index;
+        this.channel = channel;
+        this.ring = new RequestRing("шарда " + index, ServerConfig.RING_SIZE, ServerConfig.WORKER_THREADS);
+    }
+
+    /**
+     * Вычитывает из канала до {@code maxDatagrams} датаграмм подряд, затем разом десериализует
+     * собранные из них сообщения. Вызывается только из потока ввода-вывода этого шарда,
+     * поэтому приём и сборка фрагментов выполняются без блокировок.
+     *
+     * @param batch        список, в который добавляются полученные запросы
+     * @param maxDatagrams максимальное число датаграмм за вызов
+     * @return число прочитанных датаграмм (0, если канал пуст)
+     */
+    public int receiveBatch(List<Request> batch, int maxDatagrams) {
+        int datagrams = 0;
+        ByteBuffer byteBuffer = bufferPool.acquire();
+        try {
+            while (datagrams < maxDatagrams) {
+                InetSocketAddress inetSocketAddress = (InetSocketAddress) channel.receive(byteBuffer);
+                if (inetSocketAddress == null) {
+                    break;
+                }
+                datagrams++;
+                byteBuffer.flip();
+                // Подтверждения относятся к ответам сервера и не ограничиваются; чужие
+                // подтверждения отбрасываются отправкой ответов, не доходя до её очереди
+                if (Fragment.frameType(byteBuffer) != Fragment.ACK
+                        && !rateLimiter.tryAcquire(inetSocketAddress, System.nanoTime())) {
+                    metrics.recordRateLimited();
+                    byteBuffer.clear();
+                    continue;
+                }
+                acceptDatagram(byteBuffer, inetSocketAddress, batch);
+                byteBuffer.clear();
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "IO ошибка при приёме датаграммы: " + e.getMessage());
+        } finally {
+            bufferPool.release(byteBuffer);
+        }
+
+        for (int i = 0; i < pendingMessages.size(); i++) {
+            Request request = decodeRequest(ByteBuffer.wrap(pendingMessages.get(i)), pendingSources.get(i));
+            if (request != null) {
+                batch.add(request);
+            }
+        }
+        pendingMessages.clear();
+        pendingSources.clear();
+        return datagrams;
+    }
+
+    /**
+     * Обрабатывает одну датаграмму: подтверждение передаётся отправке ответа, одиночный фрагмент
+     * разбирается прямо в буфере приёма, фрагмент многофрагментной передачи - передаётся сборщику,
+     * а собранное сообщение откладывается до разбора.
+     */
+    private void acceptDatagram(ByteBuffer byteBuffer, InetSocketAddress inetSocketAddress, List<Request> batch) throws IOException {
+        try {
+            if (Fragment.frameType(byteBuffer) == Fragment.ACK) {
+                server.deliverAcknowledgement(Acknowledgement.readFrom(byteBuffer), inetSocketAddress);
+                return;
+            }
+            if (Fragment.payloadInPlace(byteBuffer)) {
+                Request request = decodeRequest(byteBuffer, inetSocketAddress);
+                if (request != null) {
+                    batch.add(request);
+                }
+                return;
+            }
+            Fragment fragment = Fragment.readFrom(byteBuffer);
+            byte[] message = assembler.accept(inetSocketAddress, fragment);
+            if (fragment.getTotal() > 1) {
+                // Данные фрагмента уже скопированы, поэтому буфер приёма можно занять подтверждением
+                byteBuffer.clear();
+                assembler.acknowledge(inetSocketAddress, fragment).writeTo(byteBuffer);
+                byteBuffer.flip();
+                channel.send(byteBuffer, inetSocketAddress);
+            }
+            if (message != null) {
+                pendingMessages.add(message);
+                pendingSources.add(inetSocketAddress);
+            }
+        } catch (IOException e) {
+            if (!channel.isOpen()) {
+                throw e;
+            }
+            server.sendResponse(new Response("Ошибка : послан поврежденный запрос", inetSocketAddress));
+        }
+    }
+
+    /**
+     * Разбирает запрос через {@link RequestView}: запросы с неизвестной командой отбрасываются
+     * без создания объектов, записи коллекции остаются закодированными до обращения к ним.
+     *
+     * @param message буфер с сообщением
+     * @return запрос или null, если он отброшен
+     */
+    private Request decodeRequest(ByteBuffer message, InetSocketAddress inetSocketAddress) {
+        try {
+            if (!view.wrap(message)) {
+                return null;
+            }
+            if (!view.isKnownCommand()) {
+                logger.log(Level.INFO, "Отброшен запрос с неизвестной командой " + inetSocketAddress);
+                return null;
+            }
+            if (isDuplicate(inetSocketAddress)) {
+                return null;
+            }
+            Request request = view.toRequest();
+            request.setClientAddress(inetSocketAddress);
+            logger.log(Level.INFO, "Получен запрос" + inetSocketAddress.toString() + " (шард " + index + ")");
+            return request;
+        } catch (IOException e) {
+            server.sendResponse(new Response("Ошибка : послан поврежденный запрос", inetSocketAddress));
+            return null;
+        }
+    }
+
+    /**
+     * Проверяет по кэшу ответов, не повтор ли это уже принятого запроса. На повтор выполненного
+     * запроса сразу отправляется сохранённый ответ, повтор выполняющегося отбрасывается.
+     * Читающие команды в кэш не попадают: их ответ - весь дамп, а повтор ничего не меняет.
+     */
+    private boolean isDuplicate(InetSocketAddress inetSocketAddress) {
+        long requestId = view.getRequestId();
+        if (requestId == 0 || view.isReadOnly()) {
+            return false;
+        }
+        ReplyCache.Entry entry = server.getReplyCache().begin(inetSocketAddress, requestId, System.currentTimeMillis());
+        if (entry == null) {
+            return false;
+        }
+        metrics.recordDuplicateRequest();
+        byte[] reply = entry.getReply();
+        if (reply != null) {
+            logger.log(Level.INFO, "Повтор запроса " + requestId + " от " + inetSocketAddress + ", отправлен сохранённый ответ");
+            server.getResponseSender().submit(inetSocketAddress, reply);
+        } else {
+            logger.log(Level.INFO, "Повтор запроса " + requestId + " от " + inetSocketAddress + " отброшен: запрос ещё выполняется");
+        }
+        return true;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    public RequestRing getRing() {
+        return ring;
+    }
+}
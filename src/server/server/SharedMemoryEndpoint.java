@@ -0,0 +1,130 @@
+package server.server;
+
+import common.serverUtils.ReplyChannel;
+import common.serverUtils.Request;
+import common.serverUtils.RequestView;
+import common.serverUtils.Response;
+import common.serverUtils.SharedRing;
+import server.utils.ServerLogger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static common.serverUtils.Serializer.serialize;
+
+/**
+ * Транспорт через разделяемую память для клиента на той же машине.
+ * <p>
+ * Запросы и ответы передаются двумя кольцевыми буферами {@link SharedRing} в файлах
+ * {@code <путь>.req} и {@code <путь>.resp}. У каждого буфера один писатель и один читатель,
+ * поэтому одновременно транспортом пользуется один клиент: он захватывает блокировку
+ * файла {@code <путь>.lock}, остальные клиенты работают через сокеты.
+ * </p>
+ */
+public class SharedMemoryEndpoint implements Runnable, ReplyChannel {
+    /**
+     * Сколько ждать, пока клиент освободит место для ответа, мс.
+     */
+    private static final long REPLY_TIME_OUT = 3000;
+    /**
+     * Сколько ждать очередную порцию запроса, мс. Клиент, умерший посреди записи,
+     * не должен останавливать транспорт.
+     */
+    private static final long REQUEST_TIME_OUT = 3000;
+
+    private final Logger logger = ServerLogger.getInstance();
+    private final SharedRing requests;
+    private final SharedRing responses;
+    private final RequestView view = new RequestView();
+    private Consumer<List<Request>> handler;
+    private Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Создаёт файлы кольцевых буферов.
+     *
+     * @param path     общий префикс путей к файлам
+     * @param capacity ёмкость каждого буфера, байт
+     */
+    SharedMemoryEndpoint(Path path, int capacity) throws IOException {
+        this.requests = SharedRing.create(Path.of(path + ".req"), capacity);
+        this.responses = SharedRing.create(Path.of(path + ".resp"), capacity);
+    }
+
+    /**
+     * Запускает поток, читающий запросы.
+     *
+     * @param handler получатель запросов; вызывается в потоке транспорта
+     */
+    public void start(Consumer<List<Request>> handler) {
+        this.handler = handler;
+        thread = new Thread(this, "Поток разделяемой памяти");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Request request = decodeRequest(requests.read(REQUEST_TIME_OUT));
+                if (request != null) {
+                    handler.accept(List.of(request));
+                }
+            } catch (SocketTimeoutException e) {
+                // Запросов не было или клиент не дописал запрос: он уже пропущен
+            } catch (InterruptedIOException e) {
+                break;
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Критическая ошибка " + e.getMessage() + e);
+            }
+        }
+        try {
+            requests.close();
+            responses.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Ошибка при закрытии разделяемой памяти");
+        }
+    }
+
+    private Request decodeRequest(byte[] message) {
+        try {
+            if (!view.wrap(ByteBuffer.wrap(message))) {
+                return null;
+            }
+            if (!view.isKnownCommand()) {
+                logger.log(Level.INFO, "Отброшен запрос с неизвестной командой из разделяемой памяти");
+                return null;
+            }
+            Request request = view.toRequest();
+            request.setReplyChannel(this);
+            return request;
+        } catch (IOException e) {
+            reply(serialize(new Response("Ошибка : послан поврежденный запрос")));
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void reply(byte[] reply) {
+        try {
+            responses.write(reply, REPLY_TIME_OUT);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Клиент разделяемой памяти не забрал ответ: " + e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package server.server;
+
+import server.utils.ServerLogger;
+import server.utils.ServerMetrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Стадия конвейера обработки запросов со своей ограниченной очередью и своими потоками.
+ * <p>
+ * Медленные стадии (запись коллекции в файл, кодирование ответов) получают отдельные
+ * потоки и очередь, поэтому их задержка не занимает потоки дешёвых стадий. Для каждой стадии
+ * в {@link ServerMetrics} учитываются время ожидания в очереди и время обработки.
+ * </p>
+ * <p>
+ * В режиме виртуальных потоков ({@link VirtualThreadPool#isEnabled()}) каждый элемент
+ * обрабатывается в своём виртуальном потоке, а длина очереди ограничивает число элементов,
+ * обрабатываемых одновременно.
+ * </p>
+ *
+ * @param <T> тип элементов, передаваемых стадии
+ */
+public class Stage<T> {
+    private static final long IDLE_WAIT = 1000;
+
+    private final Logger logger = ServerLogger.getInstance();
+    private final String name;
+    private final Consumer<T> handler;
+    private final ArrayBlockingQueue<Task<T>> queue;
+    private final ServerMetrics.StageMetrics metrics;
+    private final Thread[] threads;
+    // Только в режиме виртуальных потоков
+    private final VirtualThreadPool virtualThreads;
+    private volatile boolean running = true;
+
+    /**
+     * Конструктор стадии; потоки запускаются сразу.
+     *
+     * @param name      название стадии
+     * @param threads   число потоков стадии; при 0 элементы обрабатываются в вызывающем потоке
+     * @param queueSize наибольшее число элементов, ожидающих потока стадии
+     * @param handler   обработчик элемента; вызывается в потоке стадии
+     */
+    public Stage(String name, int threads, int queueSize, Consumer<T> handler) {
+        this.name = name;
+        this.handler = handler;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.metrics = ServerMetrics.getInstance().stage(name);
+        if (threads > 0 && VirtualThreadPool.isEnabled()) {
+            this.virtualThreads = new VirtualThreadPool("стадии " + name, queueSize);
+            this.threads = new Thread[0];
+            return;
+        }
+        this.virtualThreads = null;
+        this.threads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            this.threads[i] = new Thread(this::work, "Поток стадии " + name + "-" + (i + 1));
+            this.threads[i].setDaemon(true);
+            this.threads[i].start();
+        }
+    }
+
+    /**
+     * Ставит элемент в очередь стадии.
+     *
+     * @param item элемент
+     * @return false, если очередь стадии заполнена
+     */
+    public boolean offer(T item) {
+        if (virtualThreads != null) {
+            long enqueuedAt = System.nanoTime();
+            try {
+                virtualThreads.execute(() -> process(item, enqueuedAt));
+                return true;
+            } catch (RejectedExecutionException e) {
+                metrics.recordRejected();
+                return false;
+            }
+        }
+        if (threads.length == 0) {
+            runHere(item);
+            return true;
+        }
+        if (queue.offer(new Task<>(item, System.nanoTime()))) {
+            return true;
+        }
+        metrics.recordRejected();
+        return false;
+    }
+
+    /**
+     * Обрабатывает элемент в вызывающем потоке с учётом в счётчиках стадии.
+     * Нужен, когда элемент нельзя ни отложить, ни отклонить.
+     *
+     * @param item элемент
+     */
+    public void runHere(T item) {
+        process(item, System.nanoTime());
+    }
+
+    /**
+     * Останавливает потоки стадии. Начатая обработка не прерывается: стадия записи
+     * не должна оставить файл коллекции записанным наполовину.
+     */
+    public void shutdown() {
+        running = false;
+        if (virtualThreads != null) {
+            virtualThreads.shutdown();
+        }
+    }
+
+    private void work() {
+        while (running) {
+            Task<T> task;
+            try {
+                task = queue.poll(IDLE_WAIT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task != null) {
+                process(task.item, task.enqueuedAt);
+            }
+        }
+    }
+
+    private void process(T item, long enqueuedAt) {
+        long startedAt = System.nanoTime();
+        try {
+            handler.accept(item);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Ошибка на стадии «" + name + "»: " + e);
+        }
+        metrics.record(startedAt - enqueuedAt, System.nanoTime() - startedAt);
+    }
+
+    private static final class Task<T> {
+        private final T item;
+        private final long enqueuedAt;
+
+        private Task(T item, long enqueuedAt) {
+            this.item = item;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package server.server;
+
+import common.serverUtils.Fragment;
+import common.serverUtils.ReplyChannel;
+import common.serverUtils.Request;
+import common.serverUtils.RequestView;
+import common.serverUtils.Response;
+import server.utils.ServerConfig;
+import server.utils.ServerLogger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static common.serverUtils.Serializer.serialize;
+
+/**
+ * Потоковый транспорт сервера поверх {@link ServerSocketChannel}.
+ * <p>
+ * Соединения постоянные: клиент отправляет по одному соединению сколько угодно запросов.
+ * Каждое сообщение передаётся кадром: длина (4 байта), затем сообщение протокола.
+ * Все соединения обслуживает один поток с селектором; ответы кодируются рабочими потоками
+ * и дописываются в соединение этим же потоком по мере готовности сокета к записи.
+ * </p>
+ * <p>
+ * Пока {@link ServerConfig#STREAM_MAX_PENDING} запросов соединения ждут выполнения или отправки
+ * ответа, новые запросы из него не читаются: клиент, не успевающий забирать ответы, упирается
+ * в окно TCP, а не копит запросы и ответы в памяти сервера.
+ * </p>
+ */
+public class StreamTransport implements Runnable {
+    /**
+     * Наибольший размер кадра; кадр большего размера считается ошибкой протокола.
+     */
+    public static final int MAX_FRAME_SIZE = Fragment.MAX_MESSAGE_SIZE;
+    // Начальный буфер кадра; длина из заголовка не проверена, поэтому буфер растёт
+    // по мере прихода данных, а не выделяется сразу целиком
+    private static final int INITIAL_FRAME_BUFFER = 64 * 1024;
+
+    private final Logger logger = ServerLogger.getInstance();
+    private final String name;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final RequestView view = new RequestView();
+    // Соединения, в которые рабочие потоки положили ответы
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private Consumer<List<Request>> handler;
+    private volatile boolean running = true;
+
+    /**
+     * Конструктор транспорта.
+     *
+     * @param name          название транспорта для логов и имени потока
+     * @param serverChannel открытый и привязанный к адресу канал
+     */
+    StreamTransport(String name, ServerSocketChannel serverChannel) throws IOException {
+        this.name = name;
+        this.serverChannel = serverChannel;
+        this.workers = WorkerPool.create(name);
+        this.selector = Selector.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Запускает поток транспорта.
+     *
+     * @param handler получатель пачек запросов, прочитанных за одно пробуждение селектора
+     */
+    public void start(Consumer<List<Request>> handler) {
+        this.handler = handler;
+        new Thread(this, "Поток " + name).start();
+    }
+
+    public void shutdown() {
+        running = false;
+        workers.shutdown();
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                Connection connection;
+                while ((connection = pendingWrites.poll()) != null) {
+                    if (connection.key.isValid()) {
+                        connection.updateInterest();
+                    }
+                }
+                List<Request> batch = new ArrayList<>();
+                Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read(batch);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException e) {
+                        logger.log(Level.INFO, "Соединение " + connection.source + " закрыто: " + e.getMessage());
+                        connection.close();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    handler.accept(batch);
+                }
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Критическая ошибка " + e.getMessage() + e);
+            }
+        }
+        try {
+            selector.close();
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Ошибка при закрытии транспорта " + name);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        logger.log(Level.INFO, "Принято соединение " + connection.source + " (" + name + ")");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ExecutorService getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Одно постоянное соединение с клиентом.
+     */
+    private final class Connection implements ReplyChannel {
+        private final SocketChannel channel;
+        private final InetSocketAddress address;
+        private final String source;
+        private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        private final Queue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+        // Прочитанные запросы, ответ на которые ещё не записан в сокет целиком
+        private final AtomicInteger pending = new AtomicInteger();
+        private SelectionKey key;
+        private ByteBuffer message;
+        private int frameLength;
+
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            SocketAddress remote = channel.getRemoteAddress();
+            this.address = remote instanceof InetSocketAddress ? (InetSocketAddress) remote : null;
+            this.source = remote == null || remote.toString().isEmpty() ? name : remote.toString();
+        }
+
+        /**
+         * Вычитывает из сокета всё доступное и добавляет готовые запросы в пачку.
+         * Чтение прекращается, если ответа ждут уже {@link ServerConfig#STREAM_MAX_PENDING} запросов.
+         */
+        private void read(List<Request> batch) throws IOException {
+            while (!isSaturated()) {
+                ByteBuffer target = message == null ? lengthBuffer : message;
+                int read = channel.read(target);
+                if (read < 0) {
+                    throw new IOException("соединение закрыто клиентом");
+                }
+                if (target.hasRemaining()) {
+                    return;
+                }
+                if (message == null) {
+                    frameLength = lengthBuffer.flip().getInt();
+                    lengthBuffer.clear();
+                    if (frameLength <= 0 || frameLength > MAX_FRAME_SIZE) {
+                        throw new IOException("неверная длина кадра " + frameLength);
+                    }
+                    message = ByteBuffer.allocate(Math.min(frameLength, INITIAL_FRAME_BUFFER));
+                } else if (message.position() < frameLength) {
+                    // Буфер заполнен, а кадр ещё нет: удваиваем, но не больше длины кадра
+                    ByteBuffer grown = ByteBuffer.allocate((int) Math.min(frameLength, 2L * message.capacity()));
+                    message = grown.put(message.flip());
+                } else {
+                    message.flip();
+                    Request request = decodeRequest(message);
+                    message = null;
+                    if (request != null) {
+                        pending.incrementAndGet();
+                        batch.add(request);
+                    }
+                }
+            }
+            updateInterest();
+        }
+
+        private Request decodeRequest(ByteBuffer message) {
+            try {
+                if (!view.wrap(message)) {
+                    return null;
+                }
+                if (!view.isKnownCommand()) {
+                    logger.log(Level.INFO, "Отброшен запрос с неизвестной командой " + source);
+                    return null;
+                }
+                Request request = view.toRequest();
+                request.setClientAddress(address);
+                request.setReplyChannel(this);
+                logger.log(Level.INFO, "Получен запрос " + source + " (" + name + ")");
+                return request;
+            } catch (IOException e) {
+                pending.incrementAndGet();
+                reply(serialize(new Response("Ошибка : послан поврежденный запрос")));
+                return null;
+            }
+        }
+
+        @Override
+        public void reply(byte[] bytes) {
+            ByteBuffer frame = ByteBuffer.allocate(4 + bytes.length);
+            frame.putInt(bytes.length).put(bytes).flip();
+            outbox.add(frame);
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Дописывает в сокет накопленные ответы, пока он принимает данные.
+         */
+        private void flush() throws IOException {
+            ByteBuffer frame;
+            while ((frame = outbox.peek()) != null) {
+                channel.write(frame);
+                if (frame.hasRemaining()) {
+                    return;
+                }
+                outbox.poll();
+                pending.decrementAndGet();
+                logger.log(Level.INFO, "Отправлен ответ на " + source + " (" + name + ")");
+            }
+            updateInterest();
+        }
+
+        /**
+         * Ждёт записи, пока есть ответы, и чтения, пока ответа ждут не слишком много запросов.
+         * Вызывается только потоком селектора; ответ, добавленный после проверки очереди,
+         * снова ставит соединение в {@code pendingWrites}, и интерес пересчитывается.
+         */
+        private void updateInterest() {
+            int ops = outbox.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+            if (!isSaturated()) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+
+        private boolean isSaturated() {
+            return pending.get() >= ServerConfig.STREAM_MAX_PENDING;
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Ошибка при закрытии соединения " + source);
+            }
+        }
+    }
+}
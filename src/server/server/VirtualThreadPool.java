@@ -0,0 +1,151 @@
+package server.server;
+
+import common.serverUtils.BufferPool;
+import common.serverUtils.Compression;
+import server.utils.ServerConfig;
+import server.utils.ServerLogger;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Исполнитель, запускающий каждую задачу в отдельном виртуальном потоке (Java 21).
+ * <p>
+ * Виртуальный поток создаётся дёшево и освобождает поток-носитель на время блокирующего
+ * ввода-вывода (JDBC, запись файла), поэтому пул фиксированного размера не нужен. Сервер
+ * собирается под Java 17, поэтому виртуальные потоки создаются через отражение; на более
+ * старой JVM режим недоступен и сервер работает с обычными пулами потоков.
+ * </p>
+ * <p>
+ * Число одновременно выполняемых задач ограничено: сверх предела задача отклоняется
+ * {@link RejectedExecutionException}, как и в {@link WorkerPool}, и клиент получает ответ
+ * о перегрузке.
+ * </p>
+ */
+public class VirtualThreadPool extends AbstractExecutorService {
+    private static final Logger logger = ServerLogger.getInstance();
+    private static final boolean SUPPORTED = probe();
+    private static final boolean ENABLED = resolveEnabled();
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    /**
+     * Конструктор исполнителя.
+     *
+     * @param name  название, из которого составляются имена потоков
+     * @param limit наибольшее число одновременно выполняемых задач
+     * @throws UnsupportedOperationException если JVM не поддерживает виртуальные потоки
+     */
+    public VirtualThreadPool(String name, int limit) {
+        if (!SUPPORTED) {
+            throw new UnsupportedOperationException("виртуальные потоки недоступны");
+        }
+        this.executor = newExecutor("Виртуальный поток " + name + "-");
+        this.permits = new Semaphore(limit);
+    }
+
+    /**
+     * @return true, если виртуальные потоки включены ({@link ServerConfig#VIRTUAL_THREADS})
+     * и поддерживаются JVM
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("достигнут предел одновременно выполняемых задач");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Проверяет наличие {@code Thread.ofVirtual()}: его нет в JVM до Java 21.
+     */
+    private static boolean probe() {
+        try {
+            virtualThreadFactory("Виртуальный поток-");
+            return true;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static boolean resolveEnabled() {
+        if (!ServerConfig.VIRTUAL_THREADS) {
+            return false;
+        }
+        if (!SUPPORTED) {
+            logger.log(Level.WARNING, "Виртуальные потоки недоступны (нужна Java 21), запросы выполняются в пулах обычных потоков");
+            return false;
+        }
+        logger.log(Level.INFO, "Запросы выполняются в виртуальных потоках");
+        // Кэши потоков не переживают короткие виртуальные потоки и копят кодеки и буферы
+        Compression.disableThreadCache();
+        BufferPool.getInstance().disableThreadCache();
+        return true;
+    }
+
+    private static ThreadFactory virtualThreadFactory(String prefix) throws ReflectiveOperationException {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+        return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+
+    private static ExecutorService newExecutor(String prefix) {
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, virtualThreadFactory(prefix));
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("виртуальные потоки недоступны", e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package server.server;
+
+import server.utils.ServerConfig;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ограниченный пул рабочих потоков.
+ * <p>
+ * Число потоков ({@link ServerConfig#WORKER_THREADS}) и длина очереди задач
+ * ({@link ServerConfig#WORK_QUEUE_SIZE}) ограничены. Когда очередь заполнена, новая задача
+ * не ставится, а отклоняется {@link java.util.concurrent.RejectedExecutionException}: сервер
+ * сразу отвечает клиенту, что перегружен, вместо того чтобы копить задачи и потоки без предела.
+ * </p>
+ */
+public class WorkerPool extends ThreadPoolExecutor {
+    private static final long KEEP_ALIVE = 60;
+
+    /**
+     * Конструктор пула.
+     *
+     * @param name название пула, из которого составляются имена потоков
+     */
+    public WorkerPool(String name) {
+        super(ServerConfig.WORKER_THREADS, ServerConfig.WORKER_THREADS, KEEP_ALIVE, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(ServerConfig.WORK_QUEUE_SIZE), threadFactory(name), new AbortPolicy());
+        // Простаивающие потоки завершаются, поэтому неиспользуемый пул не держит потоков
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Создаёт пул рабочих потоков в выбранном режиме: виртуальные потоки, если они включены
+     * и доступны, иначе пул обычных потоков. Предел одновременно принятых задач в обоих
+     * режимах одинаков.
+     *
+     * @param name название пула
+     * @return исполнитель запросов
+     */
+    public static ExecutorService create(String name) {
+        if (VirtualThreadPool.isEnabled()) {
+            return new VirtualThreadPool(name, ServerConfig.WORKER_THREADS + ServerConfig.WORK_QUEUE_SIZE);
+        }
+        return new WorkerPool(name);
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, "Рабочий поток " + name + "-" + counter.incrementAndGet());
+    }
+}
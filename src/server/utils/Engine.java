@@ -1,26 +1,49 @@
 package server.utils;
 
 import common.serverUtils.Request;
+import server.managers.CommandManager;
 import server.managers.DumpManager;
 import common.utility.Console;
 import common.utility.StandartConsole;
 import common.serverUtils.Response;
+import server.server.PriorityLanes;
+import server.server.RequestLane;
 import server.server.Server;
+import server.server.SharedMemoryEndpoint;
+import server.server.Shard;
+import server.server.Stage;
+import server.server.VirtualThreadPool;
+import server.server.WorkerPool;
+import server.server.StreamTransport;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Engine {
     private static final Logger logger = ServerLogger.getInstance();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
     private boolean flag = true;
     private final DumpManager dumpManager;
+    private final CommandManager commandManager = new CommandManager();
+    private final ServerMetrics.StageMetrics dispatchMetrics = metrics.stage("распределение");
+    // Запросы выполняются в полосах своего класса, чтобы массовые команды не задерживали остальные
+    private final PriorityLanes lanes = new PriorityLanes(ServerConfig.WORKER_THREADS);
+    // Медленные стадии конвейера работают в своих потоках и не занимают рабочие потоки
+    private final Stage<Request> writeStage = new Stage<>("запись", ServerConfig.WRITE_THREADS,
+            ServerConfig.WRITE_QUEUE_SIZE, this::writeDump);
+    // В режиме виртуальных потоков запросы шардов выполняются не через кольцо, а каждый в своём потоке
+    private final ExecutorService virtualWorkers = VirtualThreadPool.isEnabled() ? WorkerPool.create("шардов") : null;
     private Server server;
 
     public Engine(String[] args) {
@@ -29,8 +52,21 @@ public class Engine {
 
 
     public void finishProgramm() {
-        this.server.getResponseCashedPoll().shutdown();
-        this.server.getReadCashedPoll().shutdown();
+        writeStage.shutdown();
+        this.server.shutdown();
+        for (Shard shard : this.server.getShards()) {
+            shard.getRing().shutdown();
+        }
+        if (virtualWorkers != null) {
+            virtualWorkers.shutdown();
+        }
+        for (StreamTransport transport : this.server.getStreamTransports()) {
+            transport.shutdown();
+        }
+        if (this.server.getSharedMemoryEndpoint() != null) {
+            this.server.getSharedMemoryEndpoint().shutdown();
+        }
+        logger.log(Level.INFO, "Статистика работы сервера:\n" + metrics.report());
         logger.log(Level.INFO, "Завершение цикла жизни сервера");
         this.flag = false;
     }
@@ -49,8 +85,26 @@ public class Engine {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        Thread thread = serverThread();
-        thread.start();
+        // Разбираем файл коллекции заранее, чтобы первый get_dump не ждал разбора XML
+        logger.log(Level.INFO, "Загружено элементов коллекции: " + dumpManager.readCollection().size());
+        List<Thread> threads = new ArrayList<>();
+        for (Shard shard : server.getShards()) {
+            if (virtualWorkers == null) {
+                shard.getRing().start(this::dispatch);
+            }
+            Thread thread = serverThread(shard);
+            thread.start();
+            threads.add(thread);
+        }
+        for (StreamTransport transport : server.getStreamTransports()) {
+            transport.start(batch -> processRequests(transport.getWorkers(), batch, "транспорта " + transport.getName()));
+        }
+        SharedMemoryEndpoint sharedMemory = server.getSharedMemoryEndpoint();
+        if (sharedMemory != null) {
+            // Запросы единственного клиента идут строго по очереди, поэтому они обрабатываются
+            // прямо в потоке транспорта: передача другому потоку только добавила бы задержку
+            sharedMemory.start(batch -> processRequests(Runnable::run, batch, "транспорта разделяемой памяти"));
+        }
 
         try {
             while (this.flag) {
@@ -58,23 +112,27 @@ public class Engine {
                 logger.log(Level.INFO, "Получен ввод из консоли : " + consoleRequest);
                 if (consoleRequest.equals("exit")) {
                     this.finishProgramm();
+                } else if (consoleRequest.equals("stats")) {
+                    console.println(metrics.report());
                 }
             }
         } catch (NoSuchElementException e) {
             logger.log(Level.SEVERE, "Перекрыт поток консольного ввода. Завершение работы");
             this.finishProgramm();
         }
-        thread.stop();
+        for (Thread thread : threads) {
+            thread.stop();
+        }
         System.exit(0);
     }
 
 
-    private Thread serverThread() {
+    private Thread serverThread(Shard shard) {
         Runnable r = () -> {
             Selector selector;
             try {
                 selector = Selector.open();
-                this.server.getChannel().register(selector, SelectionKey.OP_READ);
+                shard.getChannel().register(selector, SelectionKey.OP_READ);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -87,17 +145,15 @@ public class Engine {
                         SelectionKey key = keyIterator.next();
                         keyIterator.remove();
                         if (key.isReadable()) {
-                            this.server.getReadCashedPoll().submit(
-                                    () -> {
-                                        Request request = server.receiveRequest();
-                                        if (request != null) {
-                                            logger.log(Level.INFO, "Поступил запрос : " + request.getClientRequest());
-                                            processRequest(request);
-                                        } else {
-                                            this.server.sendResponse(new Response("Ошибка : послан поврежденный запрос", request.getClientAddress()));
-                                        }
-                                    }
-                            );
+                            // Приём выполняется прямо в этом потоке, он единственный читает из канала.
+                            // За одно пробуждение вычитывается пачка датаграмм, а собранные запросы
+                            // публикуются в кольцо рабочих потоков шарда
+                            List<Request> batch = new ArrayList<>();
+                            int datagrams = shard.receiveBatch(batch, ServerConfig.RECEIVE_BATCH_SIZE);
+                            metrics.recordReceiveBatch(datagrams);
+                            if (!batch.isEmpty()) {
+                                processRequests(shard, batch);
+                            }
                         }
                     }
                 } catch (Exception e) {
@@ -106,35 +162,139 @@ public class Engine {
             }
         };
         Thread thread = new Thread(r);
-        thread.setName("Поток");
+        thread.setName("Поток ввода-вывода " + shard.getIndex());
         return thread;
     }
 
-    public void processRequest(Request request) {
-        Runnable requestTask = () -> {
-            InetSocketAddress clientAddress = request.getClientAddress();
-            String command = request.getClientRequest();
-            if (command.equals("save_dump")) {
-                // Сохраняем коллекцию, присланную клиентом
-                dumpManager.writeCollection(request.getDataRequest());
-                Response threadResponse = new Response("Коллекция успешно сохранена на сервере.");
-                threadResponse.setClientAddress(clientAddress);
-                this.server.sendResponse(threadResponse);
-            } else if (command.equals("get_dump")) {
-                // Загружаем коллекцию с сервера и отправляем клиенту
-                String xmlData = dumpManager.readCollection(); // Реализуйте этот метод для получения XML-дампа
-                Response threadResponse = new Response(xmlData);
-                threadResponse.setClientAddress(clientAddress);
-                this.server.sendResponse(threadResponse);
+    /**
+     * Передаёт запросы рабочим потокам шарда через кольцо: каждый запрос занимает свою ячейку,
+     * поэтому запросы одной пачки обрабатываются параллельно. Не поместившиеся в кольцо запросы
+     * получают ответ о перегрузке.
+     */
+    public void processRequests(Shard shard, List<Request> batch) {
+        if (virtualWorkers != null) {
+            for (Request request : batch) {
+                processRequests(virtualWorkers, List.of(request), "шарда " + shard.getIndex());
             }
-//            else {
-//                Response threadResponse = commandManager.setUserRequest(localRequest);
-//                threadResponse.setClientAddress(clientAddress);
-//                this.server.sendResponse(threadResponse);
-//            }
-        };
-        var requestThread = new Thread(requestTask);
-        requestThread.start();
-        logger.log(Level.INFO, "Запущен поток " + requestThread.getName() + ". С id = " + requestThread.getId());
+            return;
+        }
+        List<Request> rejected = null;
+        for (Request request : batch) {
+            request.setReceivedAt(System.nanoTime());
+            if (!shard.getRing().offer(request)) {
+                if (rejected == null) {
+                    rejected = new ArrayList<>();
+                }
+                rejected.add(request);
+            }
+        }
+        if (rejected != null) {
+            rejectOverloaded(rejected, "шарда " + shard.getIndex());
+        }
+    }
+
+    private void processRequests(Executor workers, List<Request> batch, String source) {
+        long now = System.nanoTime();
+        for (Request request : batch) {
+            request.setReceivedAt(now);
+        }
+        try {
+            workers.execute(() -> {
+                for (Request request : batch) {
+                    dispatch(request);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectOverloaded(batch, source);
+            return;
+        }
+        logger.log(Level.INFO, "Пачка из " + batch.size() + " запросов передана рабочим потокам " + source);
+    }
+
+    /**
+     * Отвечает на запросы, которые не поместились в очередь рабочих потоков: такой ответ
+     * ничего не стоит серверу и сообщает клиенту, когда повторить запрос.
+     */
+    private void rejectOverloaded(List<Request> batch, String source) {
+        metrics.recordRejectedRequests(batch.size());
+        logger.log(Level.WARNING, "Очередь рабочих потоков " + source + " заполнена, отклонено запросов: " + batch.size());
+        for (Request request : batch) {
+            Response response = new Response("Ошибка : сервер перегружен, повторите запрос через "
+                    + ServerConfig.RETRY_AFTER + " мс");
+            response.setRetryAfter(ServerConfig.RETRY_AFTER);
+            this.server.sendResponse(replyTo(request, response));
+        }
+    }
+
+    /**
+     * Стадия распределения: вызывается рабочим потоком и ставит запрос в полосу его класса.
+     */
+    private void dispatch(Request request) {
+        long startedAt = System.nanoTime();
+        logger.log(Level.INFO, "Поступил запрос : " + request.getClientRequest());
+        schedule(request);
+        dispatchMetrics.record(startedAt - request.getReceivedAt(), System.nanoTime() - startedAt);
+    }
+
+    /**
+     * Ставит запрос в полосу его класса (интерактивные, массовые, служебные команды)
+     * и выполняет готовые задачи полос в вызывающем потоке.
+     */
+    private void schedule(Request request) {
+        RequestLane lane = RequestLane.of(request.getClientRequest());
+        if (!lanes.execute(lane, () -> handleRequest(request))) {
+            rejectOverloaded(List.of(request), "полосы «" + lane.getTitle() + "»");
+        }
+    }
+
+    /**
+     * Стадия записи: сохраняет коллекцию, присланную клиентом.
+     */
+    private void writeDump(Request request) {
+        Response threadResponse;
+        if (request.getElements() == null) {
+            threadResponse = new Response("Ошибка : коллекция для сохранения не передана");
+        } else {
+            threadResponse = dumpManager.writeCollection(request.getElements())
+                    ? new Response("Коллекция успешно сохранена на сервере.")
+                    : new Response("Ошибка : не удалось сохранить коллекцию на сервере");
+        }
+        this.server.sendResponse(replyTo(request, threadResponse));
+    }
+
+    private void handleRequest(Request request) {
+        String command = request.getClientRequest();
+        if (command.equals("save_dump")) {
+            // Запись файла долгая, она передаётся своей стадии
+            if (!writeStage.offer(request)) {
+                rejectOverloaded(List.of(request), "стадии записи");
+            }
+        } else if (command.equals("get_dump")) {
+            // Загружаем коллекцию с сервера и отправляем клиенту
+            Response threadResponse = new Response("");
+            threadResponse.setElements(dumpManager.readCollection());
+            if (RequestLane.of(command) == RequestLane.BULK) {
+                // Вся коллекция кодируется в потоке массовой полосы, в пределах её бюджета
+                this.server.sendResponseNow(replyTo(request, threadResponse));
+            } else {
+                this.server.sendResponse(replyTo(request, threadResponse));
+            }
+        }
+//        else {
+//            Response threadResponse = commandManager.setUserRequest(localRequest);
+//            threadResponse.setClientAddress(clientAddress);
+//            this.server.sendResponse(threadResponse);
+//        }
+    }
+
+    /**
+     * Адресует ответ туда, откуда пришёл запрос: на адрес клиента или в то же соединение.
+     */
+    private Response replyTo(Request request, Response response) {
+        response.setClientAddress(request.getClientAddress());
+        response.setRequestId(request.getRequestId());
+        response.setReplyChannel(request.getReplyChannel());
+        response.setCompressionAccepted(request.isCompressionAccepted());
+        return response;
     }
 }
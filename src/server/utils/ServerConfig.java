@@ -0,0 +1,131 @@
+package server.utils;
+
+import java.nio.file.Path;
+
+/**
+ * Настройки сервера, задаваемые системными свойствами JVM (-Dимя=значение).
+ * Если свойство не задано, используется значение по умолчанию.
+ */
+public class ServerConfig {
+    /**
+     * Максимальное число датаграмм, вычитываемых из канала за одно пробуждение селектора.
+     */
+    public static final int RECEIVE_BATCH_SIZE = Math.max(1, Integer.getInteger("server.receiveBatchSize", 32));
+    /**
+     * Число UDP-сокетов, открываемых на порту сервера с SO_REUSEPORT, каждый со своим потоком
+     * ввода-вывода и рабочими потоками.
+     */
+    public static final int SHARDS = Math.max(1, Integer.getInteger("server.shards", 1));
+    /**
+     * Принимать ли TCP-соединения на порту сервера помимо датаграмм.
+     */
+    public static final boolean STREAM = Boolean.parseBoolean(System.getProperty("server.stream", "true"));
+    /**
+     * Путь к Unix-сокету для клиентов на той же машине; пустая строка отключает его.
+     */
+    public static final String SOCKET_PATH = System.getProperty("server.socketPath",
+            Path.of(System.getProperty("java.io.tmpdir"), "lab7.sock").toString());
+
+    /**
+     * Префикс путей к файлам транспорта через разделяемую память; пустая строка (по умолчанию)
+     * отключает транспорт.
+     */
+    public static final String SHARED_MEMORY_PATH = System.getProperty("server.sharedMemoryPath", "");
+    /**
+     * Ёмкость каждого кольцевого буфера разделяемой памяти, байт.
+     */
+    public static final int SHARED_MEMORY_SIZE = Math.max(1024, Integer.getInteger("server.sharedMemorySize", 1 << 20));
+
+    /**
+     * Наибольшее число запросов в кэше ответов для обработки повторов.
+     */
+    public static final int REPLY_CACHE_SIZE = Math.max(1, Integer.getInteger("server.replyCacheSize", 4096));
+    /**
+     * Наибольший суммарный размер ответов в кэше ответов, байт.
+     */
+    public static final long REPLY_CACHE_BYTES = Math.max(0, Long.getLong("server.replyCacheBytes", 16L << 20));
+    /**
+     * Время жизни записи в кэше ответов (мс); должно превышать тайм-аут ожидания ответа клиентом.
+     */
+    public static final long REPLY_CACHE_TTL = Math.max(1, Long.getLong("server.replyCacheTtl", 10000));
+
+    /**
+     * Допустимое число датаграмм в секунду от одного клиента; 0 отключает ограничение.
+     */
+    public static final double RATE_LIMIT = Math.max(0, Double.parseDouble(System.getProperty("server.rateLimit", "500")));
+    /**
+     * Наибольшее число датаграмм, которое клиент может прислать подряд сверх допустимой частоты.
+     * Должно вмещать все фрагменты самого большого запроса.
+     */
+    public static final double RATE_BURST = Math.max(1, Double.parseDouble(System.getProperty("server.rateBurst", "2000")));
+
+    /**
+     * Число рабочих потоков в каждом пуле (у каждого шарда и потокового транспорта свой пул).
+     */
+    public static final int WORKER_THREADS = Math.max(1, Integer.getInteger("server.workerThreads",
+            Runtime.getRuntime().availableProcessors() * 2));
+    /**
+     * Наибольшее число пачек запросов, ожидающих рабочего потока в одном пуле.
+     */
+    public static final int WORK_QUEUE_SIZE = Math.max(1, Integer.getInteger("server.workQueueSize", 256));
+    /**
+     * Через сколько миллисекунд перегруженный сервер предлагает клиенту повторить запрос.
+     */
+    public static final int RETRY_AFTER = Math.max(1, Integer.getInteger("server.retryAfter", 200));
+    /**
+     * Число ячеек кольца запросов между потоком ввода-вывода шарда и его рабочими потоками.
+     */
+    public static final int RING_SIZE = Math.max(2, Integer.getInteger("server.ringSize", 1024));
+    /**
+     * Выполнять запросы в виртуальных потоках (нужна Java 21) вместо пулов обычных потоков.
+     */
+    public static final boolean VIRTUAL_THREADS = Boolean.getBoolean("server.virtualThreads");
+
+    /**
+     * Команды массовой и служебной полос через запятую; остальные команды интерактивные.
+     * По умолчанию массовая только выгрузка коллекции: сохранение в полосе лишь передаётся
+     * стадии записи и занимает поток ненадолго.
+     */
+    public static final String BULK_COMMANDS = System.getProperty("server.bulkCommands", "get_dump");
+    public static final String ADMIN_COMMANDS = System.getProperty("server.adminCommands", "");
+    /**
+     * Сколько рабочих потоков полос одновременно могут выполнять массовые и служебные запросы.
+     * Если потоков больше одного, массовым запросам достаётся хотя бы на один поток меньше общего числа.
+     */
+    public static final int BULK_WORKERS = Math.max(1, Integer.getInteger("server.bulkWorkers",
+            Math.max(1, WORKER_THREADS / 2)));
+    public static final int ADMIN_WORKERS = Math.max(1, Integer.getInteger("server.adminWorkers", 1));
+    /**
+     * Выбор полосы освободившимся потоком: "weighted" (по весам полос) или "strict" (строгий приоритет).
+     */
+    public static final String LANE_SCHEDULING = System.getProperty("server.laneScheduling", "weighted");
+
+    /**
+     * Число потоков и длина очереди стадии записи коллекции. Записи в один файл всё равно
+     * идут по очереди, поэтому по умолчанию поток один.
+     */
+    public static final int WRITE_THREADS = Math.max(1, Integer.getInteger("server.writeThreads", 1));
+    public static final int WRITE_QUEUE_SIZE = Math.max(1, Integer.getInteger("server.writeQueueSize", 1024));
+    /**
+     * Число потоков и длина очереди стадии кодирования ответов. При 0 ответ кодируется
+     * в потоке, который его подготовил.
+     */
+    public static final int ENCODE_THREADS = Math.max(0, Integer.getInteger("server.encodeThreads",
+            Runtime.getRuntime().availableProcessors()));
+    public static final int ENCODE_QUEUE_SIZE = Math.max(1, Integer.getInteger("server.encodeQueueSize", 1024));
+
+    /**
+     * Длина очереди потока отправки ответов. Ответы сверх неё отбрасываются, а не копятся в памяти;
+     * клиент повторяет запрос и получает ответ из кэша ответов.
+     */
+    public static final int SEND_QUEUE_SIZE = Math.max(1, Integer.getInteger("server.sendQueueSize", 4096));
+    /**
+     * Сколько запросов одного потокового соединения может ждать выполнения или отправки ответа.
+     * Столько же ответов самое большее копится в очереди соединения; пока предел достигнут,
+     * новые запросы из соединения не читаются.
+     */
+    public static final int STREAM_MAX_PENDING = Math.max(1, Integer.getInteger("server.streamMaxPending", 64));
+
+    private ServerConfig() {
+    }
+}
@@ -0,0 +1,161 @@
+package server.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счётчики работы сервера. Выводятся по консольной команде "stats" и при завершении работы.
+ */
+public class ServerMetrics {
+    private static ServerMetrics instance;
+
+    private final LongAdder receiveBatches = new LongAdder();
+    private final LongAdder receivedDatagrams = new LongAdder();
+    private final LongAdder sentResponses = new LongAdder();
+    private final LongAdder responseDatagrams = new LongAdder();
+    private final LongAdder duplicateRequests = new LongAdder();
+    private final LongAdder rateLimitedDatagrams = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final Map<String, StageMetrics> stages = new LinkedHashMap<>();
+
+    private ServerMetrics() {
+    }
+
+    public static synchronized ServerMetrics getInstance() {
+        if (instance == null) instance = new ServerMetrics();
+        return instance;
+    }
+
+    /**
+     * Учитывает одну пачку датаграмм, вычитанную за пробуждение селектора.
+     *
+     * @param datagrams число датаграмм в пачке
+     */
+    public void recordReceiveBatch(int datagrams) {
+        if (datagrams == 0) {
+            return;
+        }
+        receiveBatches.increment();
+        receivedDatagrams.add(datagrams);
+    }
+
+    /**
+     * Возвращает средний размер пачки принятых датаграмм.
+     *
+     * @return среднее число датаграмм за пробуждение селектора
+     */
+    public double getAverageReceiveBatch() {
+        long batches = receiveBatches.sum();
+        return batches == 0 ? 0 : (double) receivedDatagrams.sum() / batches;
+    }
+
+    /**
+     * Учитывает одну отправленную датаграмму (или многофрагментную передачу) с ответами.
+     *
+     * @param responses число ответов, упакованных в датаграмму
+     */
+    public void recordResponseDatagram(int responses) {
+        responseDatagrams.increment();
+        sentResponses.add(responses);
+    }
+
+    /**
+     * Учитывает повтор уже принятого запроса, который не выполнялся второй раз.
+     */
+    public void recordDuplicateRequest() {
+        duplicateRequests.increment();
+    }
+
+    /**
+     * Учитывает датаграмму, отброшенную из-за превышения клиентом допустимой частоты.
+     */
+    public void recordRateLimited() {
+        rateLimitedDatagrams.increment();
+    }
+
+    /**
+     * Учитывает запросы, отклонённые из-за переполнения очереди рабочих потоков.
+     *
+     * @param requests число отклонённых запросов
+     */
+    public void recordRejectedRequests(int requests) {
+        rejectedRequests.add(requests);
+    }
+
+    /**
+     * Возвращает счётчики стадии обработки запросов, заводя их при первом обращении.
+     *
+     * @param name название стадии
+     * @return счётчики стадии
+     */
+    public synchronized StageMetrics stage(String name) {
+        return stages.computeIfAbsent(name, StageMetrics::new);
+    }
+
+    /**
+     * Возвращает текстовый отчёт по всем счётчикам.
+     *
+     * @return отчёт
+     */
+    public String report() {
+        return "Принято датаграмм: " + receivedDatagrams.sum() + "\n" +
+                "Пачек приёма: " + receiveBatches.sum() + "\n" +
+                String.format("Средний размер пачки: %.2f", getAverageReceiveBatch()) + "\n" +
+                "Отправлено ответов: " + sentResponses.sum() + "\n" +
+                "Датаграмм с ответами: " + responseDatagrams.sum() + "\n" +
+                "Повторов запросов: " + duplicateRequests.sum() + "\n" +
+                "Отброшено датаграмм сверх допустимой частоты: " + rateLimitedDatagrams.sum() + "\n" +
+                "Отклонено запросов при перегрузке: " + rejectedRequests.sum() + stagesReport();
+    }
+
+    private synchronized String stagesReport() {
+        StringBuilder report = new StringBuilder();
+        for (StageMetrics stage : stages.values()) {
+            report.append("\n").append(stage.report());
+        }
+        return report.toString();
+    }
+
+    /**
+     * Счётчики одной стадии обработки запросов: сколько элементов обработано, сколько в среднем
+     * каждый ждал в очереди стадии и обрабатывался, сколько не поместилось в очередь.
+     */
+    public static final class StageMetrics {
+        private final String name;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final LongAdder serviceNanos = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private StageMetrics(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Учитывает один обработанный элемент.
+         *
+         * @param waitNanos    время ожидания в очереди стадии (нс)
+         * @param serviceNanos время обработки (нс)
+         */
+        public void record(long waitNanos, long serviceNanos) {
+            processed.increment();
+            this.waitNanos.add(Math.max(0, waitNanos));
+            this.serviceNanos.add(Math.max(0, serviceNanos));
+        }
+
+        /**
+         * Учитывает элемент, не поместившийся в очередь стадии.
+         */
+        public void recordRejected() {
+            rejected.increment();
+        }
+
+        private String report() {
+            long count = processed.sum();
+            return String.format("Стадия «%s»: обработано %d, среднее ожидание %.1f мкс, средняя обработка %.1f мкс, не поместилось в очередь %d",
+                    name, count, count == 0 ? 0 : waitNanos.sum() / 1e3 / count,
+                    count == 0 ? 0 : serviceNanos.sum() / 1e3 / count, rejected.sum());
+        }
+    }
+}